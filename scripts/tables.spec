@@ -0,0 +1,8 @@
+# The tables generated by "big-generate", one per line.
+# <table_name> <num_of_rows> <lower_bound (inclusive)> <upper_bound (exclusive)>
+a 1_000_000 0 100_000
+b 1_000_000 0 100_000
+c 1_000_000 0 100_000
+d 1_000_000 0 100_000
+e 1_000_000 0 100_000
+f 1_000_000 0 100_000
@@ -0,0 +1,61 @@
+package com.yunpengn.tools;
+
+import java.util.Random;
+
+/**
+ * Generates synthetic input which looks like the output of Calcite, for the benchmarks.
+ */
+final class BenchmarkData {
+  // The tables referred to by the generated queries.
+  private static final String[] TABLES = {"a", "b", "c", "d", "e"};
+
+  private BenchmarkData() {
+  }
+
+  /**
+   * Generates a query which joins all tables, similar to a root node produced by Calcite.
+   *
+   * @param random is the source of randomness.
+   * @param numPredicates is the number of extra predicates, which decides the length of the query.
+   * @return the query.
+   */
+  static String query(final Random random, final int numPredicates) {
+    final StringBuilder builder = new StringBuilder("SELECT *\nFROM \"public\".\"a\"\n");
+    for (int i = 1; i < TABLES.length; i++) {
+      builder.append("LEFT JOIN \"public\".\"").append(TABLES[i]).append("\" ON \"")
+          .append(TABLES[i - 1]).append("ID\" = \"").append(TABLES[i]).append("ID\"\n");
+    }
+    builder.append("WHERE TRUE");
+    for (int i = 0; i < numPredicates; i++) {
+      final String table = TABLES[random.nextInt(TABLES.length)];
+      builder.append("\nAND (\"").append(table).append("ID\" > ").append(random.nextInt(1000))
+          .append(" OR \"").append(table).append("ID\" IS NULL)");
+    }
+    return builder.append("\nROWS BETWEEN UNBOUNDED PRECEDING AND CURRENT ROW\n").toString();
+  }
+
+  /**
+   * Generates the content of an input file.
+   *
+   * @param random is the source of randomness.
+   * @param numPairs is the number of pairs in the file.
+   * @param numPredicates is the number of extra predicates in each query.
+   * @return the content.
+   */
+  static String input(final Random random, final int numPairs, final int numPredicates) {
+    final StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < numPairs; i++) {
+      final String origin = query(random, numPredicates);
+      builder.append(QueryPairReader.PAIR_DELIMITER).append('\n')
+          .append(origin)
+          .append(QueryPairReader.INTERNAL_DELIMITER).append('\n')
+          .append(origin)
+          .append(QueryPairReader.INTERNAL_DELIMITER).append('\n')
+          .append(query(random, numPredicates))
+          .append(QueryPairReader.INTERNAL_DELIMITER).append('\n')
+          .append("org.apache.calcite.rel.rules.custom.Rule").append(i % 20).append('\n')
+          .append(QueryPairReader.PAIR_DELIMITER).append('\n');
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,86 @@
+package com.yunpengn.tools;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the INSERT path of the loader, against an in-memory H2 database which stands in for PostgreSQL.
+ * The COPY path is specific to PostgreSQL, so it is not covered here.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DataLoaderBenchmark {
+  private static final String URL = "jdbc:h2:mem:loader;MODE=PostgreSQL;DB_CLOSE_DELAY=-1";
+  private static final String[] TABLES = {"a", "b", "c", "d"};
+
+  @Param({"1", "1000"})
+  private int batchSize;
+
+  private ConnectionPool connectionPool;
+  private DataLoader loader;
+
+  @Setup
+  public void setUp() throws SQLException {
+    connectionPool = new ConnectionPool(URL, new Properties(), TABLES.length);
+    execute("CREATE TABLE IF NOT EXISTS \"%s\" (\"%sID\" integer)");
+    loader = new DataLoader(connectionPool, false, TABLES.length, false, batchSize);
+  }
+
+  @Setup(Level.Invocation)
+  public void truncate() throws SQLException {
+    execute("TRUNCATE TABLE \"%s\"");
+  }
+
+  @TearDown
+  public void tearDown() throws SQLException {
+    connectionPool.close();
+  }
+
+  @Benchmark
+  public void load() throws SQLException, InterruptedException {
+    loader.load(0, 100_000, 10_000);
+  }
+
+  /**
+   * Executes a statement on each table.
+   *
+   * @param template is the template of the statement, which takes the table name twice.
+   * @throws SQLException when unable to execute any statement.
+   */
+  private void execute(final String template) throws SQLException {
+    try {
+      final Connection connection = connectionPool.borrow();
+      try (Statement statement = connection.createStatement()) {
+        for (final String table: TABLES) {
+          statement.execute(String.format(template, table, table));
+        }
+      } finally {
+        connectionPool.release(connection);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException(e);
+    }
+  }
+}
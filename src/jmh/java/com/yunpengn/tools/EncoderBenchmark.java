@@ -0,0 +1,79 @@
+package com.yunpengn.tools;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the generation and encoding of data by the generators and the loader.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EncoderBenchmark {
+  private static final int NUM_ROWS = 100_000;
+
+  private final DataGenerator generator = new DataGenerator();
+  private final Sampler zipfSampler = new Sampler(Sampler.Distribution.ZIPF, 0);
+  private final SplittableRandom random = new SplittableRandom(42);
+  private final byte[] copyBuffer = new byte[NUM_ROWS * 12];
+  private final ByteBuffer insertBuffer = ByteBuffer.allocateDirect(NUM_ROWS * 15);
+  private int[] values;
+
+  @Setup
+  public void setUp() {
+    values = Sampler.sampleUniform(new SplittableRandom(42), -1_000_000, 1_000_000, NUM_ROWS);
+  }
+
+  @Benchmark
+  public int encodeCopyRows() {
+    int length = 0;
+    for (final int value: values) {
+      length = DataLoader.encodeRow(copyBuffer, length, value);
+    }
+    return length;
+  }
+
+  @Benchmark
+  public int encodeInsertValues() {
+    insertBuffer.clear();
+    for (final int value: values) {
+      DataBigGenerator.putInt(insertBuffer, value);
+    }
+    return insertBuffer.position();
+  }
+
+  @Benchmark
+  public String generateInsertQuery() {
+    return generator.generate("h", 6000, -500, 9000);
+  }
+
+  @Benchmark
+  public int[] sampleDistinctDense() {
+    return Sampler.sampleDistinct(random, 0, 2 * NUM_ROWS, NUM_ROWS);
+  }
+
+  @Benchmark
+  public int[] sampleDistinctSparse() {
+    return Sampler.sampleDistinct(random, 0, Integer.MAX_VALUE - 1, NUM_ROWS);
+  }
+
+  @Benchmark
+  public int[] sampleZipf() {
+    return zipfSampler.sample(random, 0, 1_000_000, NUM_ROWS);
+  }
+}
@@ -0,0 +1,53 @@
+package com.yunpengn.tools;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the hashing of pairs of queries, which is used for deduplication.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryPairBenchmark {
+  private String origin;
+  private String second;
+  private QueryPair pair;
+
+  @Setup
+  public void setUp() {
+    final Random random = new Random(42);
+    origin = BenchmarkData.query(random, 20);
+    second = BenchmarkData.query(random, 20);
+    pair = new QueryPair(origin, origin, second);
+  }
+
+  @Benchmark
+  public QueryPair create() {
+    return new QueryPair(origin, origin, second);
+  }
+
+  @Benchmark
+  public int hashCodeOf() {
+    return pair.hashCode();
+  }
+
+  @Benchmark
+  public boolean equalsCopy() {
+    return pair.equals(new QueryPair(origin, origin, second));
+  }
+}
@@ -0,0 +1,79 @@
+package com.yunpengn.tools;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast the input is parsed into pairs of queries.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryPairReaderBenchmark {
+  @Param({"10000"})
+  private int numPairs;
+
+  @Param({"5", "50"})
+  private int numPredicates;
+
+  private String input;
+  private Path inputFile;
+
+  @Setup
+  public void setUp() throws IOException {
+    input = BenchmarkData.input(new Random(42), numPairs, numPredicates);
+    inputFile = Files.createTempFile("pairs", ".txt");
+    Files.write(inputFile, input.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(inputFile);
+  }
+
+  @Benchmark
+  public int readAll() throws IOException {
+    int count = 0;
+    try (QueryPairReader reader = new QueryPairReader(new StringReader(input), Collections.emptySet())) {
+      while (reader.next() != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Benchmark
+  public int scanMapped() throws IOException {
+    int count = 0;
+    try (MappedPairScanner scanner = new MappedPairScanner(inputFile, Collections.emptySet())) {
+      for (final MappedPairScanner.Split split: scanner.split(1)) {
+        while (split.next() != null) {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+}
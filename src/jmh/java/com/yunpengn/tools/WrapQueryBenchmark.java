@@ -0,0 +1,42 @@
+package com.yunpengn.tools;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the detection of fields when wrapping a query.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WrapQueryBenchmark {
+  @Param({"5", "50", "500"})
+  private int numPredicates;
+
+  private String query;
+
+  @Setup
+  public void setUp() {
+    query = BenchmarkData.query(new Random(42), numPredicates);
+  }
+
+  @Benchmark
+  public String wrapQuery() {
+    return ResultVerifier.wrapQuery(query, true, FieldMatcher.DEFAULT);
+  }
+}
@@ -1,16 +1,27 @@
 package com.yunpengn;
 
+import com.yunpengn.tools.Backend;
+import com.yunpengn.tools.ConnectionPool;
 import com.yunpengn.tools.DataBigGenerator;
 import com.yunpengn.tools.DataGenerator;
 import com.yunpengn.tools.DataLoader;
+import com.yunpengn.tools.PairStore;
 import com.yunpengn.tools.ResultVerifier;
+import com.yunpengn.tools.Sampler;
+import com.yunpengn.tools.ShardCoordinator;
 import com.yunpengn.tools.StatsChecker;
+import com.yunpengn.tools.VerifierOptions;
 
 import java.io.FileInputStream;
-import java.sql.Connection;
-import java.sql.DriverManager;
+import java.nio.file.Paths;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * The main driver class.
@@ -18,6 +29,12 @@ import java.util.Properties;
 public class Main {
   // The name for configuration file.
   private static final String PROPERTY_FILE_NAME = "config.properties";
+  // The prefix of the schemas of the datasets loaded by "load --datasets".
+  private static final String DATASET_PREFIX = "dataset_";
+  // The ratio of NULL values in every other dataset, unless given.
+  private static final double DATASET_NULL_RATIO = 0.1;
+  // The format of a shard, i.e., "index/num_of_shards".
+  private static final Pattern SHARD_FORMAT = Pattern.compile("(\\d+)/(\\d+)");
 
   /**
    * The main function.
@@ -37,6 +54,9 @@ public class Main {
     case "check":
       checkQueryResult(args);
       break;
+    case "check-sharded":
+      checkSharded(args);
+      break;
     case "generate":
       generate(args);
       break;
@@ -49,6 +69,9 @@ public class Main {
     case "stats":
       checkStats(args);
       break;
+    case "compile":
+      compile(args);
+      break;
     default:
       System.err.println("Invalid command.");
     }
@@ -63,56 +86,179 @@ public class Main {
    */
   private static void checkQueryResult(String[] args) throws Exception {
     // Input validation.
-    if (args.length == 1) {
-      System.err.println("Usage: java -jar XXX.jar check <input_file_name> [Y/N]");
+    final boolean resume = Arrays.asList(args).contains("--resume");
+    final String shard = getOption(args, "--shard", null);
+    final String database = getOption(args, "--db", null);
+    final String url = getOption(args, "--url", null);
+    final int[] shardParts = shard == null ? new int[] {0, 1} : parseShard(shard);
+    args = Arrays.stream(args).filter(arg -> !arg.startsWith("--")).toArray(String[]::new);
+    if (args.length == 1 || shardParts == null) {
+      System.err.println("Usage: java -jar XXX.jar check <input_file_name> [Y/N] [--resume] "
+          + "[--shard=<index>/<num_of_shards>] [--db=<database>] [--url=<jdbc_url>]");
       return;
     }
     final String inputFile = args[1];
 
     // Whether to enable query wrapper.
-    boolean wrapInput = true;
-    if (args.length > 2) {
-      switch (args[2].toLowerCase()) {
-      case "y":
-      case "yes":
-      case "true":
-      case "t":
-        wrapInput = true;
-        break;
-      case "n":
-      case "no":
-      case "false":
-      case "f":
-        wrapInput = false;
-        break;
-      default:
-        System.err.println("Invalid argument: " + args[2]);
-        return;
-      }
+    final Boolean wrapInput = args.length > 2 ? parseWrapInput(args[2]) : Boolean.TRUE;
+    if (wrapInput == null) {
+      return;
     }
 
-    // Creates the database connection & compares the queries.
-    final Connection connection = createConnection();
-    final ResultVerifier verifier = new ResultVerifier(wrapInput, connection);
+    // Creates the database connections & compares the queries.
+    final Properties props = loadProperties();
+    if (resume) {
+      props.setProperty("resume", "true");
+    }
+    if (shard != null) {
+      props.setProperty("shard.index", String.valueOf(shardParts[0]));
+      props.setProperty("shard.count", String.valueOf(shardParts[1]));
+    }
+    if (database != null) {
+      props.setProperty("db", database);
+    }
+    if (url != null) {
+      props.setProperty("url", url);
+    }
+    final VerifierOptions options = new VerifierOptions(props);
+    final List<ConnectionPool> connectionPools = new ArrayList<>();
+    if (options.datasets.isEmpty()) {
+      connectionPools.add(createConnectionPool(props, options.concurrency, null));
+    }
+    for (final String dataset: options.datasets) {
+      connectionPools.add(createConnectionPool(props, options.concurrency, dataset));
+    }
+    final ResultVerifier verifier = new ResultVerifier(wrapInput, connectionPools, options);
     verifier.verify(inputFile);
 
-    // Closes the database connection.
-    connection.close();
+    // Closes the database connections.
+    for (final ConnectionPool connectionPool: connectionPools) {
+      connectionPool.close();
+    }
+  }
+
+  /**
+   * Parses a shard given in the form of "index/num_of_shards".
+   *
+   * @param shard is the shard.
+   * @return the index and the number of shards, or null if the shard is malformed or out of range.
+   */
+  private static int[] parseShard(final String shard) {
+    final Matcher matcher = SHARD_FORMAT.matcher(shard);
+    if (!matcher.matches()) {
+      return null;
+    }
+    try {
+      final int index = Integer.parseInt(matcher.group(1));
+      final int count = Integer.parseInt(matcher.group(2));
+      return index < count ? new int[] {index, count} : null;
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Checks query results with several worker processes, each of which checks a shard of the input.
+   *
+   * @param args are the CLI arguments.
+   * @throws Exception when there is any error.
+   */
+  private static void checkSharded(String[] args) throws Exception {
+    // Input validation.
+    final int numShards = Integer.parseInt(getOption(args, "--shards",
+        String.valueOf(Runtime.getRuntime().availableProcessors())));
+    final boolean resume = Arrays.asList(args).contains("--resume");
+    args = Arrays.stream(args).filter(arg -> !arg.startsWith("--")).toArray(String[]::new);
+    if (args.length == 1 || numShards < 1) {
+      System.err.println("Usage: java -jar XXX.jar check-sharded <input_file_name> [Y/N] [--shards=<num>] "
+          + "[--resume]");
+      return;
+    }
+    if (args.length > 2 && parseWrapInput(args[2]) == null) {
+      return;
+    }
+
+    // Passes the same arguments to each worker, which adds its own shard.
+    final List<String> workerArgs = new ArrayList<>(Arrays.asList(args).subList(1, args.length));
+    if (resume) {
+      workerArgs.add("--resume");
+    }
+    final ShardCoordinator coordinator = new ShardCoordinator(numShards, loadProperties());
+    coordinator.run(workerArgs);
+  }
+
+  /**
+   * Parses the flag on whether to enable query wrapper.
+   *
+   * @param arg is the CLI argument.
+   * @return the flag, or null if the argument is invalid.
+   */
+  private static Boolean parseWrapInput(final String arg) {
+    switch (arg.toLowerCase()) {
+    case "y":
+    case "yes":
+    case "true":
+    case "t":
+      return true;
+    case "n":
+    case "no":
+    case "false":
+    case "f":
+      return false;
+    default:
+      System.err.println("Invalid argument: " + arg);
+      return null;
+    }
   }
 
   private static void generate(String[] args) throws Exception {
-    final DataGenerator generator = new DataGenerator();
+    final boolean compress = Arrays.asList(args).contains("--gzip");
+    final DataGenerator generator = new DataGenerator(createSampler(args), compress);
     generator.run();
   }
 
   private static void bigGenerate(String[] args) throws Exception {
-    final DataBigGenerator generator = new DataBigGenerator();
-    generator.run();
+    final boolean compress = Arrays.asList(args).contains("--gzip");
+    final DataBigGenerator generator = new DataBigGenerator(compress);
+    args = Arrays.stream(args).filter(arg -> !arg.startsWith("--")).toArray(String[]::new);
+    if (args.length > 1) {
+      generator.run(args[1]);
+    } else {
+      generator.run();
+    }
+  }
+
+  /**
+   * Compiles the output of Calcite into a binary file, which can be checked without parsing.
+   *
+   * @param args are the CLI arguments.
+   */
+  private static void compile(String[] args) throws Exception {
+    if (args.length == 1) {
+      System.err.println("Usage: java -jar XXX.jar compile <input_file_name> [output_file_name]");
+      return;
+    }
+    final String inputFile = args[1];
+    final String outputFile = args.length > 2
+        ? args[2] : inputFile.replaceFirst("\\.gz$", "") + PairStore.EXTENSION;
+    final int numPairs = PairStore.compile(Paths.get(inputFile), Paths.get(outputFile));
+    System.out.printf("Compiled %d pairs of queries into %s.\n", numPairs, outputFile);
   }
 
+  /**
+   * Sums up the statistics in a folder, and keeps them up to date with "--watch".
+   *
+   * @param args are the CLI arguments.
+   */
   private static void checkStats(String[] args) throws Exception {
-    final StatsChecker checker = new StatsChecker();
-    checker.run(args[1]);
+    final int numThreads = Integer.parseInt(getOption(args, "--threads",
+        String.valueOf(Runtime.getRuntime().availableProcessors())));
+    final StatsChecker checker = new StatsChecker(numThreads);
+    if (Arrays.asList(args).contains("--watch")) {
+      checker.watch(args[1]);
+    } else {
+      checker.run(args[1]);
+    }
   }
 
   /**
@@ -122,42 +268,132 @@ public class Main {
    */
   private static void loadData(String[] args) throws Exception {
     // Input validation.
+    boolean useCopy = Arrays.asList(args).contains("--copy");
+    final Sampler sampler = createSampler(args);
+    final String schema = getOption(args, "--schema", null);
+    final int numDatasets = Integer.parseInt(getOption(args, "--datasets", "0"));
+    final String seed = getOption(args, "--seed", null);
+    final SplittableRandom random = seed == null
+        ? new SplittableRandom() : new SplittableRandom(Long.parseLong(seed));
+    final String distribution = getOption(args, "--dist", null);
+    final String nullRatio = getOption(args, "--nulls", null);
+    args = Arrays.stream(args).filter(arg -> !arg.startsWith("--")).toArray(String[]::new);
     if (args.length == 1) {
-      System.err.println("Usage: java -jar XXX.jar load <num_of_rows> [num_of_tables]");
+      System.err.println("Usage: java -jar XXX.jar load <num_of_rows> [num_of_tables] [--copy] "
+          + "[--dist=distinct/uniform/zipf/duplicate] [--nulls=<ratio>] [--seed=<seed>] "
+          + "[--schema=<schema> | --datasets=<num_of_datasets>]");
+      System.err.println("Only distinct values without NULLs fit the tables with keys created by "
+          + "scripts/create_db.sql. Load other values into new tables with --schema or --datasets.");
       return;
     }
     final int numRows = Integer.parseInt(args[1]);
 
     // Number of tables.
-    final Connection connection = createConnection();
-    final boolean truncateTable = true;
-    DataLoader loader = new DataLoader(connection, truncateTable);
-    if (args.length > 2) {
-      final int numTables = Integer.parseInt(args[2]);
-      loader = new DataLoader(connection, truncateTable, numTables);
+    final int numTables = args.length > 2 ? Integer.parseInt(args[2]) : DataLoader.MAX_TABLES;
+
+    // Creates one connection per table, with batches of INSERT rewritten into multi-row statements.
+    final Properties props = loadProperties();
+    props.setProperty("reWriteBatchedInserts", "true");
+    final int batchSize = Integer.parseInt(props.getProperty("load.batchSize", "1000"));
+    if (useCopy && !Backend.of(props).supportsCopy()) {
+      System.err.println("The backend does not support COPY, use batches of INSERT instead.");
+      useCopy = false;
+    }
+    final ConnectionPool connectionPool = createConnectionPool(props, numTables, null);
+    try {
+      final boolean truncateTable = true;
+      if (numDatasets == 0) {
+        final DataLoader loader = new DataLoader(connectionPool, truncateTable, numTables, useCopy, batchSize,
+            sampler, schema, random);
+        loader.load(numRows);
+      }
+
+      // Loads several datasets into their own schemas. Unless given, the distributions take turns, and
+      // every other dataset has NULL values.
+      final Sampler.Distribution[] distributions = Sampler.Distribution.values();
+      final List<String> datasets = new ArrayList<>();
+      for (int i = 0; i < numDatasets; i++) {
+        final String dataset = DATASET_PREFIX + i;
+        final Sampler.Distribution datasetDistribution = distribution != null
+            ? Sampler.Distribution.valueOf(distribution.toUpperCase()) : distributions[i % distributions.length];
+        final double datasetNullRatio = nullRatio != null
+            ? Double.parseDouble(nullRatio) : (i % 2 == 0 ? 0 : DATASET_NULL_RATIO);
+        System.out.printf("\nGoing to load dataset %s (%s values & %.2f nulls) ...\n", dataset,
+            datasetDistribution.name().toLowerCase(), datasetNullRatio);
+        final Sampler datasetSampler = new Sampler(datasetDistribution, datasetNullRatio);
+        final DataLoader loader = new DataLoader(connectionPool, truncateTable, numTables, useCopy, batchSize,
+            datasetSampler, dataset, random.split());
+        loader.load(numRows);
+        datasets.add(dataset);
+      }
+      if (numDatasets > 0) {
+        System.out.println("\nVerify on all datasets by setting \"datasets=" + String.join(",", datasets)
+            + "\" in the configuration.");
+      }
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+    } finally {
+      // Closes the database connections.
+      connectionPool.close();
     }
+  }
 
-    // Loads data.
-    loader.load(numRows);
+  /**
+   * Creates the sampler for generated data, from the "--dist" and "--nulls" options.
+   *
+   * @param args are the CLI arguments.
+   * @return the sampler.
+   */
+  private static Sampler createSampler(final String[] args) {
+    final String distribution = getOption(args, "--dist", "distinct");
+    final double nullRatio = Double.parseDouble(getOption(args, "--nulls", "0"));
+    return new Sampler(Sampler.Distribution.valueOf(distribution.toUpperCase()), nullRatio);
+  }
 
-    // Closes the database connection.
-    connection.close();
+  /**
+   * Gets the value of an option given in the form of "--name=value".
+   *
+   * @param args are the CLI arguments.
+   * @param name is the name of the option.
+   * @param defaultValue is the value if the option is absent.
+   * @return the value of the option.
+   */
+  private static String getOption(final String[] args, final String name, final String defaultValue) {
+    final String prefix = name + "=";
+    for (final String arg: args) {
+      if (arg.startsWith(prefix)) {
+        return arg.substring(prefix.length());
+      }
+    }
+    return defaultValue;
   }
 
   /**
-   * Reads the configuration file and creates the database connection.
+   * Reads the configuration file.
    *
-   * @return the database connection
-   * @throws Exception when there is any I/O error or database error.
+   * @return the properties in the configuration file.
+   * @throws Exception when there is any I/O error.
    */
-  private static Connection createConnection() throws Exception {
-    // Loads the property.
+  private static Properties loadProperties() throws Exception {
     final Properties props = new Properties();
-    props.load(new FileInputStream(PROPERTY_FILE_NAME));
+    try (FileInputStream input = new FileInputStream(PROPERTY_FILE_NAME)) {
+      props.load(input);
+    }
+    return props;
+  }
 
-    // Creates the database connection.
-    String dbName = props.getProperty("db");
-    String url = "jdbc:postgresql://localhost/" + dbName;
-    return DriverManager.getConnection(url, props);
+  /**
+   * Creates a pool of connections to the database given in the configuration.
+   *
+   * @param props are the properties in the configuration file.
+   * @param size is the number of connections.
+   * @param schema is the default schema of each connection (or null for the default of the database).
+   * @return the pool of connections.
+   * @throws Exception when unable to create any connection.
+   */
+  private static ConnectionPool createConnectionPool(final Properties props, final int size, final String schema)
+      throws Exception {
+    final Backend backend = Backend.of(props);
+    return new ConnectionPool(backend.createUrl(props), backend.connectionProperties(props), size, schema);
   }
 }
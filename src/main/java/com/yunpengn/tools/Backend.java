@@ -0,0 +1,101 @@
+package com.yunpengn.tools;
+
+import java.util.Properties;
+
+/**
+ * The database engines which queries can be verified on, chosen by the "backend" property.
+ */
+public enum Backend {
+  // An external PostgreSQL server on the local machine.
+  POSTGRES,
+  // An embedded H2 database in the PostgreSQL compatibility mode, which runs inside the current process.
+  H2;
+
+  // The prefix of the JDBC url for PostgreSQL.
+  private static final String POSTGRES_URL_PREFIX = "jdbc:postgresql://localhost/";
+  // The prefix and the settings of the JDBC url for H2.
+  private static final String H2_URL_PREFIX = "jdbc:h2:";
+  private static final String H2_SETTINGS = ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH"
+      + ";DB_CLOSE_DELAY=-1";
+  // The prefix of the location of an in-memory H2 database.
+  private static final String H2_MEMORY_PREFIX = "mem:";
+
+  /**
+   * Gets the backend given in the configuration.
+   *
+   * @param props are the properties in the configuration file.
+   * @return the backend, which is PostgreSQL by default.
+   */
+  public static Backend of(final Properties props) {
+    return valueOf(props.getProperty("backend", "postgres").toUpperCase());
+  }
+
+  /**
+   * Creates the JDBC url of the database given in the configuration. An H2 database is kept in a local
+   * file under "h2/" by default, so that it survives between the "load" and the "check" commands. It can be
+   * moved by the "h2.location" property, e.g., "mem:test" for an in-memory database. A PostgreSQL database is
+   * on the default port of the local machine, unless the "url" property gives the whole url (e.g., for another
+   * instance on a different port).
+   *
+   * @param props are the properties in the configuration file.
+   * @return the JDBC url.
+   */
+  public String createUrl(final Properties props) {
+    final String database = props.getProperty("db");
+    switch (this) {
+    case H2:
+      final String location = props.getProperty("h2.location", "./h2/" + database);
+      // Allows several processes (e.g., the workers of check-sharded) to open the same file.
+      final String server = location.startsWith(H2_MEMORY_PREFIX) ? "" : ";AUTO_SERVER=TRUE";
+      return H2_URL_PREFIX + location + H2_SETTINGS + server;
+    case POSTGRES:
+    default:
+      return props.getProperty("url", POSTGRES_URL_PREFIX + database);
+    }
+  }
+
+  /**
+   * Filters the properties in the configuration down to those understood by the JDBC driver.
+   *
+   * @param props are the properties in the configuration file.
+   * @return the properties used to create each connection.
+   */
+  public Properties connectionProperties(final Properties props) {
+    switch (this) {
+    case H2:
+      // H2 rejects any setting it does not know.
+      final Properties result = new Properties();
+      result.setProperty("user", props.getProperty("user", ""));
+      result.setProperty("password", props.getProperty("password", ""));
+      return result;
+    case POSTGRES:
+    default:
+      return props;
+    }
+  }
+
+  /**
+   * Creates the expressions of two independent hashes of a row, named "h1" and "h2".
+   *
+   * @param row is the expression of the text of the row.
+   * @return the expressions in a SELECT clause.
+   */
+  public String rowHashes(final String row) {
+    switch (this) {
+    case H2:
+      return String.format("CAST(SUBSTRING(HASH('SHA-256', %1$s) FROM 1 FOR 8) AS BIGINT) AS \"h1\", "
+          + "ORA_HASH(%1$s) AS \"h2\"", row);
+    case POSTGRES:
+    default:
+      return String.format("('x' || SUBSTR(MD5(%1$s), 1, 16))::BIT(64)::BIGINT AS \"h1\", "
+          + "HASHTEXT(%1$s) AS \"h2\"", row);
+    }
+  }
+
+  /**
+   * @return true if the backend supports loading data with COPY.
+   */
+  public boolean supportsCopy() {
+    return this == POSTGRES;
+  }
+}
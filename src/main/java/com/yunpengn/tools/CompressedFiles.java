@@ -0,0 +1,225 @@
+package com.yunpengn.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Opens files which are transparently compressed with gzip, based on their extension. A compressed input is
+ * decompressed by a separate thread ahead of the reader, such that decompression overlaps with parsing.
+ */
+public class CompressedFiles {
+  // The extension of the files compressed with gzip.
+  public static final String GZIP_EXTENSION = ".gz";
+
+  // The size of the buffers of the streams, and of each chunk decompressed ahead.
+  private static final int BUFFER_SIZE = 1 << 20;
+  // The number of chunks decompressed ahead of the reader.
+  private static final int READ_AHEAD_CHUNKS = 8;
+
+  private CompressedFiles() {
+  }
+
+  /**
+   * @param path is the path to a file.
+   * @return true if the file is compressed, according to its extension.
+   */
+  public static boolean isCompressed(final Path path) {
+    return path.getFileName().toString().endsWith(GZIP_EXTENSION);
+  }
+
+  /**
+   * Opens a file for reading, which is decompressed on a separate thread if it is compressed.
+   *
+   * @param path is the path to the file.
+   * @return the input stream of the uncompressed content.
+   * @throws IOException when there is any I/O error.
+   */
+  public static InputStream openInput(final Path path) throws IOException {
+    final InputStream input = Files.newInputStream(path);
+    if (!isCompressed(path)) {
+      return input;
+    }
+    try {
+      return new ReadAheadInputStream(new GZIPInputStream(input, BUFFER_SIZE));
+    } catch (IOException e) {
+      input.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Opens a file for writing, which is compressed if its extension says so. Appending to a compressed file
+   * adds another gzip member, which still makes a valid gzip file.
+   *
+   * @param path is the path to the file.
+   * @param options are the options to open the file.
+   * @return the output stream of the uncompressed content.
+   * @throws IOException when there is any I/O error.
+   */
+  public static OutputStream openOutput(final Path path, final OpenOption... options) throws IOException {
+    final OutputStream output = Files.newOutputStream(path, options);
+    return isCompressed(path) ? new GZIPOutputStream(output, BUFFER_SIZE) : output;
+  }
+
+  /**
+   * Wraps a channel opened for writing, which can be forced onto the disk afterwards. A compressed stream uses
+   * sync flushes, such that each flush pushes all content written so far into the channel.
+   *
+   * @param channel is the channel to the file.
+   * @param isCompressed is whether to compress the content with gzip.
+   * @return the output stream of the uncompressed content.
+   * @throws IOException when there is any I/O error.
+   */
+  public static OutputStream openOutput(final FileChannel channel, final boolean isCompressed) throws IOException {
+    final OutputStream output = Channels.newOutputStream(channel);
+    return isCompressed ? new GZIPOutputStream(output, BUFFER_SIZE, true) : output;
+  }
+
+  /**
+   * Compresses some bytes into a standalone gzip member, which can be appended to a gzip file.
+   *
+   * @param content is the content to compress.
+   * @param length is the number of bytes to compress.
+   * @return the compressed bytes.
+   * @throws IOException when there is any I/O error.
+   */
+  public static byte[] compress(final byte[] content, final int length) throws IOException {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(64, length / 4));
+    try (GZIPOutputStream gzip = new GZIPOutputStream(output, BUFFER_SIZE)) {
+      gzip.write(content, 0, length);
+    }
+    return output.toByteArray();
+  }
+
+  /**
+   * An input stream which reads its source on a separate thread, a chunk at a time, and keeps a bounded
+   * number of chunks ahead of the reader.
+   */
+  private static class ReadAheadInputStream extends InputStream {
+    // Marks the end of the source.
+    private static final byte[] END = new byte[0];
+
+    // The underlying stream, which is only read by the read-ahead thread.
+    private final InputStream source;
+    // The chunks read ahead.
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(READ_AHEAD_CHUNKS);
+    // The thread which reads the source.
+    private final Thread thread;
+    // The error met by the read-ahead thread, thrown to the reader at the end of the chunks.
+    private volatile IOException failure;
+
+    // The chunk being read, and the position in it.
+    private byte[] current = new byte[0];
+    private int position = 0;
+    private boolean isEnd = false;
+
+    private ReadAheadInputStream(final InputStream source) {
+      this.source = source;
+      this.thread = new Thread(this::readAhead, "read-ahead");
+      this.thread.setDaemon(true);
+      this.thread.start();
+    }
+
+    private void readAhead() {
+      try {
+        while (true) {
+          final byte[] buffer = new byte[BUFFER_SIZE];
+          int length = 0;
+          int numRead;
+          while (length < buffer.length && (numRead = source.read(buffer, length, buffer.length - length)) > 0) {
+            length += numRead;
+          }
+          if (length > 0) {
+            chunks.put(length == buffer.length ? buffer : Arrays.copyOf(buffer, length));
+          }
+          if (length < buffer.length) {
+            break;
+          }
+        }
+      } catch (IOException e) {
+        failure = e;
+      } catch (InterruptedException e) {
+        // The stream is closed by the reader.
+        return;
+      }
+
+      try {
+        chunks.put(END);
+      } catch (InterruptedException e) {
+        // The stream is closed by the reader.
+      }
+    }
+
+    @Override public int read() throws IOException {
+      if (!nextChunk()) {
+        return -1;
+      }
+      return current[position++] & 0xff;
+    }
+
+    @Override public int read(final byte[] b, final int off, final int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!nextChunk()) {
+        return -1;
+      }
+      final int numRead = Math.min(len, current.length - position);
+      System.arraycopy(current, position, b, off, numRead);
+      position += numRead;
+      return numRead;
+    }
+
+    /**
+     * Moves to the next chunk if the current one is used up.
+     *
+     * @return false if there is no more content.
+     * @throws IOException when the read-ahead thread meets an error.
+     */
+    private boolean nextChunk() throws IOException {
+      while (position == current.length) {
+        if (isEnd) {
+          return false;
+        }
+        try {
+          current = chunks.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting for the input.");
+        }
+        position = 0;
+        if (current == END) {
+          isEnd = true;
+          if (failure != null) {
+            throw failure;
+          }
+        }
+      }
+      return true;
+    }
+
+    @Override public void close() throws IOException {
+      // Stops the read-ahead thread before closing the source it reads.
+      thread.interrupt();
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      source.close();
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package com.yunpengn.tools;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A fixed-size pool of database connections, such that each worker can own a dedicated connection.
+ */
+public class ConnectionPool implements AutoCloseable {
+  // All connections created by this pool.
+  private final List<Connection> connections;
+  // The connections which are not borrowed by any worker.
+  private final BlockingQueue<Connection> idleConnections;
+
+  /**
+   * Creates a new {@link ConnectionPool}.
+   *
+   * @param url is the JDBC url of the database.
+   * @param props are the properties used to create each connection.
+   * @param size is the number of connections in this pool.
+   * @throws SQLException when unable to create any connection.
+   */
+  public ConnectionPool(final String url, final Properties props, final int size) throws SQLException {
+    this(url, props, size, null);
+  }
+
+  /**
+   * Creates a new {@link ConnectionPool} whose connections use a given schema by default.
+   *
+   * @param url is the JDBC url of the database.
+   * @param props are the properties used to create each connection.
+   * @param size is the number of connections in this pool.
+   * @param schema is the default schema of each connection (or null for the default of the database).
+   * @throws SQLException when unable to create any connection.
+   */
+  public ConnectionPool(final String url, final Properties props, final int size, final String schema)
+      throws SQLException {
+    if (size <= 0) {
+      throw new IllegalArgumentException("The size of a connection pool must be positive: " + size);
+    }
+
+    this.connections = new ArrayList<>(size);
+    this.idleConnections = new ArrayBlockingQueue<>(size);
+    try {
+      for (int i = 0; i < size; i++) {
+        final Connection connection = DriverManager.getConnection(url, props);
+        connections.add(connection);
+        if (schema != null) {
+          connection.setSchema(schema);
+        }
+        idleConnections.add(connection);
+      }
+    } catch (SQLException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return the number of connections in this pool.
+   */
+  public int size() {
+    return connections.size();
+  }
+
+  /**
+   * Borrows a connection from this pool, waiting until one becomes available.
+   *
+   * @return a connection which is owned by the caller until it is released.
+   * @throws InterruptedException when interrupted while waiting.
+   */
+  public Connection borrow() throws InterruptedException {
+    return idleConnections.take();
+  }
+
+  /**
+   * Returns a connection borrowed by {@link #borrow()} back to this pool.
+   *
+   * @param connection is the borrowed connection.
+   */
+  public void release(final Connection connection) {
+    idleConnections.add(connection);
+  }
+
+  /**
+   * Closes all connections in this pool.
+   *
+   * @throws SQLException when unable to close any connection.
+   */
+  @Override public void close() throws SQLException {
+    SQLException exception = null;
+    for (final Connection connection: connections) {
+      try {
+        connection.close();
+      } catch (SQLException e) {
+        exception = e;
+      }
+    }
+
+    if (exception != null) {
+      throw exception;
+    }
+  }
+}
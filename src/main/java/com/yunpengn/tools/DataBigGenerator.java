@@ -1,51 +1,241 @@
 package com.yunpengn.tools;
 
-import java.io.Writer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Random;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+/**
+ * Generates big tables in parallel. Each table is split into chunks, and each chunk is generated by its own
+ * task with an independent random stream. Every chunk is written as a standalone INSERT statement, so that
+ * the chunks of a table can be appended to its file in any order. When compressed, each chunk is also
+ * compressed by its own task into a standalone gzip member, and the concatenated members form a valid
+ * gzip file.
+ */
 public class DataBigGenerator {
   private static final String FILE_FORMAT = "scripts/tables/%s.sql";
-  private static final Random RANDOM = new Random();
+  private static final String DEFAULT_SPEC = "scripts/tables.spec";
+  private static final String SPEC_COMMENT = "#";
+  private static final int CHUNK_SIZE = 1_000_000;
   private static final int BATCH_SIZE = 50_000;
 
+  // The maximum number of bytes needed to encode a single row, i.e., "(-2147483648), ".
+  private static final int MAX_ROW_SIZE = 15;
+
+  /**
+   * The specification of a table to generate.
+   */
+  static class TableSpec {
+    final String tableName;
+    final long numRows;
+    final int lower;
+    final int upper;
+
+    TableSpec(final String tableName, final long numRows, final int lower, final int upper) {
+      this.tableName = tableName;
+      this.numRows = numRows;
+      this.lower = lower;
+      this.upper = upper;
+    }
+  }
+
+  // Whether to compress the files with gzip.
+  private final boolean compress;
+  // The buffer of each thread, which is reused across chunks.
+  private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<>();
+
+  public DataBigGenerator() {
+    this(false);
+  }
+
+  /**
+   * Creates a new {@link DataBigGenerator}.
+   *
+   * @param compress is whether to compress the files with gzip (which adds ".gz" to their names).
+   */
+  public DataBigGenerator(final boolean compress) {
+    this.compress = compress;
+  }
+
   public void run() throws Exception {
-    generate("a", 1_000_000, 0, 100_000);
-    generate("b", 1_000_000, 0, 100_000);
-    generate("c", 1_000_000, 0, 100_000);
-    generate("d", 1_000_000, 0, 100_000);
-    generate("e", 1_000_000, 0, 100_000);
-    generate("f", 1_000_000, 0, 100_000);
-  }
-
-  private void generate(final String tableName, final int numRows, final int lower, final int upper) throws Exception {
-    final String fileName = String.format(FILE_FORMAT, tableName);
-    final Path filePath = Paths.get(fileName);
-    final Writer writer = Files.newBufferedWriter(filePath);
-    System.out.printf("Going to generate INSERT query for table %s.\n", tableName);
-
-    // Writes the content.
-    final String prefix = String.format("INSERT INTO %s (\"%sID\") VALUES \n", tableName, tableName);
-    writer.write(prefix);
+    run(DEFAULT_SPEC);
+  }
+
+  public void run(final String specFile) throws Exception {
+    final List<TableSpec> specs = readSpecs(Paths.get(specFile));
+    final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    final List<FileChannel> channels = new ArrayList<>();
+    final List<Future<?>> futures = new ArrayList<>();
+
+    try {
+      for (final TableSpec spec: specs) {
+        final Path filePath = Paths.get(String.format(FILE_FORMAT, spec.tableName)
+            + (compress ? CompressedFiles.GZIP_EXTENSION : ""));
+        Files.createDirectories(filePath.getParent());
+        final FileChannel channel = FileChannel.open(filePath, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        channels.add(channel);
+        System.out.printf("Going to generate INSERT query for table %s.\n", spec.tableName);
+
+        // Splits the random stream on the current thread, since SplittableRandom is not thread-safe.
+        final SplittableRandom random = new SplittableRandom();
+        for (long start = 0; start < spec.numRows; start += CHUNK_SIZE) {
+          final int numRows = (int) Math.min(CHUNK_SIZE, spec.numRows - start);
+          final long end = start + numRows;
+          final SplittableRandom chunkRandom = random.split();
+          futures.add(executor.submit(() -> {
+            generateChunk(channel, spec, numRows, chunkRandom);
+            System.out.printf("Have generated entries %d to %d of table %s.\n", end - numRows + 1, end,
+                spec.tableName);
+            return null;
+          }));
+        }
+      }
+
+      // Waits for all chunks.
+      for (final Future<?> future: futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw e;
+    } finally {
+      executor.shutdownNow();
+      for (final FileChannel channel: channels) {
+        channel.close();
+      }
+    }
+
+    // Separates the output.
+    System.out.println("-----------------------------------------------------------\n");
+  }
+
+  /**
+   * Reads the specifications of all tables from a file. Each line contains the table name, the number of
+   * rows, and the lower (inclusive) and upper (exclusive) bounds of the values, separated by whitespace.
+   *
+   * @param specFile is the path to the file.
+   * @return the specifications of all tables.
+   * @throws IOException when there is any I/O error.
+   */
+  static List<TableSpec> readSpecs(final Path specFile) throws IOException {
+    final List<TableSpec> specs = new ArrayList<>();
+    for (final String line: Files.readAllLines(specFile)) {
+      final String trimmed = line.trim();
+      if (trimmed.isEmpty() || trimmed.startsWith(SPEC_COMMENT)) {
+        continue;
+      }
+
+      final String[] fields = trimmed.split("\\s+");
+      if (fields.length != 4) {
+        throw new IllegalArgumentException("Invalid table specification: " + line);
+      }
+      specs.add(new TableSpec(fields[0], Long.parseLong(fields[1].replace("_", "")),
+          Integer.parseInt(fields[2].replace("_", "")), Integer.parseInt(fields[3].replace("_", ""))));
+    }
+    return specs;
+  }
+
+  /**
+   * Generates a chunk of rows as a single INSERT statement, and appends it to the file of the table.
+   *
+   * @param channel is the file of the table.
+   * @param spec is the specification of the table.
+   * @param numRows is the number of rows in this chunk.
+   * @param random is the random stream owned by this chunk.
+   * @throws IOException when there is any I/O error.
+   */
+  private void generateChunk(final FileChannel channel, final TableSpec spec, final int numRows,
+                             final SplittableRandom random) throws IOException {
+    final byte[] prefix = String.format("INSERT INTO %s (\"%sID\") VALUES \n", spec.tableName, spec.tableName)
+        .getBytes(StandardCharsets.US_ASCII);
+    final ByteBuffer buffer = getBuffer(prefix.length + numRows * MAX_ROW_SIZE + numRows / BATCH_SIZE + 2);
+
+    // Encodes the content.
+    buffer.put(prefix);
     for (int i = 1; i <= numRows; i++) {
-      final int num = RANDOM.nextInt(upper - lower) + lower;
-      writer.write("(" + num + ")");
-      writer.write(i < numRows ? ", " : ";");
+      buffer.put((byte) '(');
+      putInt(buffer, random.nextInt(spec.lower, spec.upper));
+      buffer.put((byte) ')');
+      if (i < numRows) {
+        buffer.put((byte) ',').put((byte) ' ');
+      } else {
+        buffer.put((byte) ';');
+      }
 
       if (i % BATCH_SIZE == 0) {
-        System.out.printf("Have generated %d entries.\n", i);
-        writer.write("\n");
+        buffer.put((byte) '\n');
       }
     }
-    writer.write("\n\n");
+    buffer.put((byte) '\n').put((byte) '\n');
 
-    // Closes the writer.
-    writer.flush();
-    writer.close();
+    // Appends the whole chunk at once, so that chunks do not interleave.
+    buffer.flip();
+    ByteBuffer output = buffer;
+    if (compress) {
+      final byte[] content = new byte[buffer.remaining()];
+      buffer.get(content);
+      output = ByteBuffer.wrap(CompressedFiles.compress(content, content.length));
+    }
+    synchronized (channel) {
+      while (output.hasRemaining()) {
+        channel.write(output);
+      }
+    }
+  }
 
-    // Separates the output.
-    System.out.println("-----------------------------------------------------------\n");
+  /**
+   * Gets the buffer of the current thread, which is cleared and has at least the given capacity.
+   *
+   * @param capacity is the minimum capacity.
+   * @return the buffer.
+   */
+  private ByteBuffer getBuffer(final int capacity) {
+    ByteBuffer buffer = buffers.get();
+    if (buffer == null || buffer.capacity() < capacity) {
+      buffer = ByteBuffer.allocateDirect(capacity);
+      buffers.set(buffer);
+    }
+    buffer.clear();
+    return buffer;
+  }
+
+  /**
+   * Encodes an integer in decimal, without allocating a string.
+   *
+   * @param buffer is the buffer to write into.
+   * @param value is the integer to encode.
+   */
+  static void putInt(final ByteBuffer buffer, final int value) {
+    long remaining = value;
+    if (remaining < 0) {
+      buffer.put((byte) '-');
+      remaining = -remaining;
+    }
+
+    // Writes the digits backwards, and then moves the position to the end.
+    int numDigits = 1;
+    for (long i = remaining; i >= 10; i /= 10) {
+      numDigits++;
+    }
+    final int start = buffer.position();
+    for (int i = start + numDigits - 1; i >= start; i--) {
+      buffer.put(i, (byte) ('0' + remaining % 10));
+      remaining /= 10;
+    }
+    buffer.position(start + numDigits);
   }
 }
@@ -1,21 +1,38 @@
 package com.yunpengn.tools;
 
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
-import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
-import java.util.Random;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.SplittableRandom;
 
 public class DataGenerator {
   private static final Path OUTPUT = Paths.get("scripts/insert_data.sql");
 
+  private final Sampler sampler;
+  private final SplittableRandom random = new SplittableRandom();
+  // Whether to compress the output with gzip.
+  private final boolean compress;
+
+  public DataGenerator() {
+    this(new Sampler());
+  }
+
+  public DataGenerator(final Sampler sampler) {
+    this(sampler, false);
+  }
+
+  public DataGenerator(final Sampler sampler, final boolean compress) {
+    this.sampler = sampler;
+    this.compress = compress;
+  }
+
   public void run() throws Exception {
-    final Writer writer = Files.newBufferedWriter(OUTPUT);
+    final Path output = compress ? Paths.get(OUTPUT + CompressedFiles.GZIP_EXTENSION) : OUTPUT;
+    final Writer writer = new BufferedWriter(new OutputStreamWriter(CompressedFiles.openOutput(output),
+        StandardCharsets.UTF_8));
     String query = "";
     assert query.equals(query.toLowerCase());
 
@@ -40,21 +57,19 @@ public class DataGenerator {
     writer.close();
   }
 
-  private String generate(final String tableName, final int numRows, final int lower, final int upper) {
+  String generate(final String tableName, final int numRows, final int lower, final int upper) {
     System.out.printf("Going to generate INSERT query for table %s.\n", tableName);
 
     final StringBuilder builder = new StringBuilder();
     builder.append(String.format("INSERT INTO %s (\"%sID\") VALUES ", tableName, tableName));
 
     // Creates the data.
-    final List<Integer> numbers = IntStream.rangeClosed(lower, upper).boxed().collect(Collectors.toList());
-    Collections.shuffle(numbers);
-    final List<Integer> values = numbers.subList(0, numRows);
+    final int[] values = sampler.sample(random, lower, upper, numRows);
 
     // Inserts data.
     for (int i = 0; i < numRows; i++) {
-      final int num = values.get(i);
-      builder.append(String.format("(%d)", num));
+      final int num = values[i];
+      builder.append('(').append(num == Sampler.NULL_VALUE ? "NULL" : String.valueOf(num)).append(')');
       builder.append(i < numRows - 1 ? ", " : ";");
     }
     builder.append("\n\n");
@@ -1,15 +1,27 @@
 package com.yunpengn.tools;
 
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.Collections;
+import java.sql.Types;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
- * A class to load data into different tables.
+ * A class to load data into different tables. Each table is loaded by its own worker, on a connection
+ * borrowed from the pool.
  */
 public class DataLoader {
   // All possible table names.
@@ -17,92 +29,346 @@ public class DataLoader {
       "a", "b", "c", "d", "e", "f", "g", "h"
   );
 
+  // The maximum number of tables to insert into.
+  public static final int MAX_TABLES = tableNames.size();
+
   // All query templates.
+  private static final String CREATE_SCHEMA_QUERY = "CREATE SCHEMA IF NOT EXISTS \"%s\"";
+  private static final String CREATE_QUERY = "CREATE TABLE IF NOT EXISTS %s (\"%s\" integer)";
   private static final String TRUNCATE_QUERY = "TRUNCATE TABLE %s";
-  private static final String INSERT_QUERY = "INSERT INTO \"%s\" (\"%s\") VALUES (%%d)";
+  private static final String INSERT_QUERY = "INSERT INTO %s (\"%s\") VALUES (?)";
+  private static final String COPY_QUERY = "COPY %s (\"%s\") FROM STDIN";
+
+  // The size of the buffer used to encode rows for COPY.
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+  // The maximum number of bytes needed to encode a single row.
+  private static final int MAX_ROW_SIZE = 12;
+  // The representation of NULL in the text format of COPY.
+  private static final byte[] COPY_NULL = {'\\', 'N', '\n'};
+
+  // The default number of rows in each batch of INSERT.
+  private static final int DEFAULT_BATCH_SIZE = 1000;
 
   // The default range for input data.
   private static final int defaultLower = 0;
   private static final int defaultUpper = 40;
 
-  // The database connection.
-  private final Connection connection;
+  // The pool of database connections.
+  private final ConnectionPool connectionPool;
   // Whether to truncate tables before inserting new data.
   private final boolean truncateTable;
   // The number of tables to insert into.
   private final int numTables;
+  // Whether to stream the data with COPY instead of batches of INSERT.
+  private final boolean useCopy;
+  // The number of rows in each batch of INSERT.
+  private final int batchSize;
+  // Draws the values of each table.
+  private final Sampler sampler;
+  // The schema of the tables (null for the current schema), such that several datasets can co-exist.
+  private final String schema;
+  // The source of randomness, which is split into one independent source per table.
+  private final SplittableRandom random;
+
+  public DataLoader(final ConnectionPool connectionPool, final boolean truncateTable) {
+    this(connectionPool, truncateTable, MAX_TABLES);
+  }
+
+  public DataLoader(final ConnectionPool connectionPool, final boolean truncateTable, final int numTables) {
+    this(connectionPool, truncateTable, numTables, false, DEFAULT_BATCH_SIZE);
+  }
 
-  public DataLoader(final Connection connection, final boolean truncateTable) {
-    this(connection, truncateTable, tableNames.size());
+  public DataLoader(final ConnectionPool connectionPool, final boolean truncateTable, final int numTables,
+                    final boolean useCopy, final int batchSize) {
+    this(connectionPool, truncateTable, numTables, useCopy, batchSize, new Sampler());
   }
 
-  public DataLoader(final Connection connection, final boolean truncateTable, final int numTables) {
-    this.connection = connection;
+  public DataLoader(final ConnectionPool connectionPool, final boolean truncateTable, final int numTables,
+                    final boolean useCopy, final int batchSize, final Sampler sampler) {
+    this(connectionPool, truncateTable, numTables, useCopy, batchSize, sampler, null, new SplittableRandom());
+  }
+
+  public DataLoader(final ConnectionPool connectionPool, final boolean truncateTable, final int numTables,
+                    final boolean useCopy, final int batchSize, final Sampler sampler, final String schema,
+                    final SplittableRandom random) {
+    this.connectionPool = connectionPool;
     this.truncateTable = truncateTable;
     this.numTables = numTables;
+    this.useCopy = useCopy;
+    this.batchSize = batchSize;
+    this.sampler = sampler;
+    this.schema = schema;
+    this.random = random;
   }
 
-  public void load(final int numRows) throws SQLException {
+  public void load(final int numRows) throws SQLException, InterruptedException {
     load(defaultLower, defaultUpper, numRows);
   }
 
-  public void load(final int lower, final int upper, final int numRows) throws SQLException {
+  /**
+   * Loads random values into all tables.
+   *
+   * @param lower is the lower bound of the values (inclusive).
+   * @param upper is the upper bound of the values (inclusive).
+   * @param numRows is the number of rows in each table.
+   * @throws SQLException when unable to execute any query.
+   * @throws InterruptedException when interrupted while waiting for a connection.
+   * @throws IllegalArgumentException when the values may contain duplicates or NULLs, while a table has a key.
+   */
+  public void load(final int lower, final int upper, final int numRows) throws SQLException, InterruptedException {
+    // Duplicates and NULLs would violate a key, which is checked before any table is truncated.
+    if (!sampler.isKeyCompatible()) {
+      checkNoKeys();
+    }
+
     // Truncate all tables if necessary.
     if (truncateTable) {
-      System.out.println("Going to truncate all tables ...");
       truncateTables();
     }
 
-    // Insert data into each table.
+    // Insert data into each table in parallel.
     System.out.println("\nGoing to insert data into all tables ...");
+    final List<Callable<Void>> tasks = new ArrayList<>(numTables);
     for (int i = 0; i < numTables; i++) {
       final String tableName = tableNames.get(i);
+      final SplittableRandom tableRandom = random.split();
+      tasks.add(() -> {
+        // Generates data.
+        final int[] values = sampler.sample(tableRandom, lower, upper, numRows);
+
+        // Fills in the current table.
+        final Connection connection = connectionPool.borrow();
+        try {
+          final long startTime = System.nanoTime();
+          if (useCopy) {
+            copyTable(connection, tableName, values);
+          } else {
+            insertTable(connection, tableName, values);
+          }
+          printThroughput(tableName, values.length, System.nanoTime() - startTime);
+        } finally {
+          connectionPool.release(connection);
+        }
+        return null;
+      });
+    }
 
-      // Generates data.
-      final List<Integer> numbers = IntStream.rangeClosed(lower, upper).boxed().collect(Collectors.toList());
-      Collections.shuffle(numbers);
-      final List<Integer> values = numbers.subList(0, numRows);
+    final ExecutorService executor = Executors.newFixedThreadPool(Math.min(numTables, connectionPool.size()));
+    try {
+      for (final Future<Void> future: executor.invokeAll(tasks)) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof SQLException) {
+        throw (SQLException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
 
-      // Fills in the current table.
-      insertTable(tableName, values);
+  /**
+   * Checks that no table has a primary key or a unique index, such as the tables created by
+   * scripts/create_db.sql. Missing tables are fine, as they are created without any key.
+   *
+   * @throws SQLException when unable to read the metadata.
+   * @throws InterruptedException when interrupted while waiting for a connection.
+   * @throws IllegalArgumentException when a table has a key.
+   */
+  private void checkNoKeys() throws SQLException, InterruptedException {
+    final Connection connection = connectionPool.borrow();
+    try {
+      final DatabaseMetaData metaData = connection.getMetaData();
+      final String schemaName = schema == null ? connection.getSchema() : schema;
+      for (final String tableName: tableNames.subList(0, numTables)) {
+        try (ResultSet indexes = metaData.getIndexInfo(null, schemaName, tableName, true, true)) {
+          while (indexes.next()) {
+            if (indexes.getShort("TYPE") != DatabaseMetaData.tableIndexStatistic) {
+              throw new IllegalArgumentException(String.format("Table %s has a key, which cannot hold duplicate "
+                  + "or NULL values. Load distinct values without NULLs, or load into a schema without keys "
+                  + "(--schema or --datasets).", qualify(tableName)));
+            }
+          }
+        }
+      }
+    } finally {
+      connectionPool.release(connection);
     }
   }
 
   /**
-   * Truncates all tables.
+   * Creates the missing tables (e.g., in a fresh embedded database) and truncates all of them, in a single
+   * batch of statements within one transaction. PostgreSQL truncates all tables with a single statement, while
+   * H2 (which does not support it) truncates them one by one.
    *
    * @throws SQLException when unable to execute any query.
+   * @throws InterruptedException when interrupted while waiting for a connection.
    */
-  private void truncateTables() throws SQLException {
-    for (int i = 0; i < numTables; i++) {
-      final String tableName = tableNames.get(i);
-      final String query = String.format(TRUNCATE_QUERY, tableName);
-      System.out.println("Going to truncate table \"" + tableName + "\" ...");
+  private void truncateTables() throws SQLException, InterruptedException {
+    final List<String> tables = tableNames.subList(0, numTables);
+    System.out.println("Going to truncate tables " + String.join(", ", tables) + " ...");
 
-      final Statement statement = connection.createStatement();
-      statement.execute(query);
-      statement.close();
+    final Connection connection = connectionPool.borrow();
+    try (Statement statement = connection.createStatement()) {
+      connection.setAutoCommit(false);
+      if (schema != null) {
+        statement.addBatch(String.format(CREATE_SCHEMA_QUERY, schema));
+      }
+      final List<String> qualifiedTables = new ArrayList<>();
+      for (final String tableName: tables) {
+        statement.addBatch(String.format(CREATE_QUERY, qualify(tableName), tableName + "ID"));
+        qualifiedTables.add(qualify(tableName));
+      }
+      if (connection.isWrapperFor(PGConnection.class)) {
+        statement.addBatch(String.format(TRUNCATE_QUERY, String.join(", ", qualifiedTables)));
+      } else {
+        for (final String qualifiedTable: qualifiedTables) {
+          statement.addBatch(String.format(TRUNCATE_QUERY, qualifiedTable));
+        }
+      }
+      statement.executeBatch();
+      connection.commit();
+    } catch (SQLException e) {
+      connection.rollback();
+      throw e;
+    } finally {
+      connection.setAutoCommit(true);
+      connectionPool.release(connection);
     }
   }
 
   /**
-   * Inserts data into a given table.
+   * Inserts data into a given table with batches of prepared INSERT, all in a single transaction.
    *
+   * @param connection is the database connection owned by the current worker.
    * @param tableName is the table's name.
    * @param values are all data to be inserted.
    * @throws SQLException when unable to execute any query.
    */
-  private void insertTable(final String tableName, final List<Integer> values) throws SQLException {
+  private void insertTable(final Connection connection, final String tableName, final int[] values)
+      throws SQLException {
     final String columnName = tableName + "ID";
-    final String queryTemplate = String.format(INSERT_QUERY, tableName, columnName);
+    final String query = String.format(INSERT_QUERY, qualify(tableName), columnName);
     System.out.println("Going to insert data into table \"" + tableName + "\" ...");
 
-    // Inserts each value.
-    for (Integer value: values) {
-      final String query = String.format(queryTemplate, value);
-      final Statement statement = connection.createStatement();
-      statement.execute(query);
-      statement.close();
+    // Inserts all values in batches.
+    connection.setAutoCommit(false);
+    try (PreparedStatement statement = connection.prepareStatement(query)) {
+      int pending = 0;
+      for (final int value: values) {
+        if (value == Sampler.NULL_VALUE) {
+          statement.setNull(1, Types.INTEGER);
+        } else {
+          statement.setInt(1, value);
+        }
+        statement.addBatch();
+
+        if (++pending == batchSize) {
+          statement.executeBatch();
+          pending = 0;
+        }
+      }
+      if (pending > 0) {
+        statement.executeBatch();
+      }
+      connection.commit();
+    } catch (SQLException e) {
+      connection.rollback();
+      throw e;
+    } finally {
+      connection.setAutoCommit(true);
+    }
+  }
+
+  /**
+   * @param tableName is the table's name.
+   * @return the quoted name of the table, qualified by the schema if there is one.
+   */
+  private String qualify(final String tableName) {
+    return schema == null ? "\"" + tableName + "\"" : "\"" + schema + "\".\"" + tableName + "\"";
+  }
+
+  /**
+   * Prints the throughput of loading a table.
+   *
+   * @param tableName is the table's name.
+   * @param numRows is the number of rows loaded.
+   * @param elapsedNanos is the time spent, in nanoseconds.
+   */
+  private void printThroughput(final String tableName, final int numRows, final long elapsedNanos) {
+    final double elapsedSeconds = elapsedNanos / 1e9;
+    System.out.printf("Loaded %d rows into table \"%s\" in %.3f seconds (%.0f rows/sec).\n",
+        numRows, tableName, elapsedSeconds, numRows / Math.max(elapsedSeconds, 1e-9));
+  }
+
+  /**
+   * Inserts data into a given table with a single COPY, which streams all rows in one round trip.
+   *
+   * @param connection is the database connection owned by the current worker.
+   * @param tableName is the table's name.
+   * @param values are all data to be inserted.
+   * @throws SQLException when unable to execute any query.
+   */
+  private void copyTable(final Connection connection, final String tableName, final int[] values)
+      throws SQLException {
+    final String columnName = tableName + "ID";
+    final String query = String.format(COPY_QUERY, qualify(tableName), columnName);
+    System.out.println("Going to copy data into table \"" + tableName + "\" ...");
+
+    // Encodes the rows in text format into a reusable buffer, and flushes it whenever it is full.
+    final CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(query);
+    try {
+      final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+      int length = 0;
+      for (final int value: values) {
+        if (length + MAX_ROW_SIZE > buffer.length) {
+          copyIn.writeToCopy(buffer, 0, length);
+          length = 0;
+        }
+        length = encodeRow(buffer, length, value);
+      }
+      copyIn.writeToCopy(buffer, 0, length);
+      copyIn.endCopy();
+    } finally {
+      if (copyIn.isActive()) {
+        copyIn.cancelCopy();
+      }
+    }
+  }
+
+  /**
+   * Encodes an integer (or {@link Sampler#NULL_VALUE}) as a row in the text format of COPY, without
+   * allocating a string.
+   *
+   * @param buffer is the buffer to write into.
+   * @param offset is the position to start writing at.
+   * @param value is the integer to encode.
+   * @return the position after the encoded row.
+   */
+  static int encodeRow(final byte[] buffer, int offset, final int value) {
+    if (value == Sampler.NULL_VALUE) {
+      System.arraycopy(COPY_NULL, 0, buffer, offset, COPY_NULL.length);
+      return offset + COPY_NULL.length;
+    }
+
+    long remaining = value;
+    if (remaining < 0) {
+      buffer[offset++] = '-';
+      remaining = -remaining;
+    }
+
+    // Writes the digits backwards, and then moves the position to the end.
+    int numDigits = 1;
+    for (long i = remaining; i >= 10; i /= 10) {
+      numDigits++;
+    }
+    for (int i = offset + numDigits - 1; i >= offset; i--) {
+      buffer[i] = (byte) ('0' + remaining % 10);
+      remaining /= 10;
     }
+    offset += numDigits;
+    buffer[offset++] = '\n';
+    return offset;
   }
 }
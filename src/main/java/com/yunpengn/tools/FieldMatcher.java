@@ -0,0 +1,187 @@
+package com.yunpengn.tools;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Finds the fields referenced by a query in a single pass. A field is referenced if the query contains its
+ * name, or the quoted name of its table. All names are compiled into an Aho-Corasick automaton, whose
+ * transitions are precomputed for every state and every character appearing in the names.
+ */
+public class FieldMatcher {
+  // The schema used when the catalog has no table: table "a" has field "aID", and so on.
+  public static final FieldMatcher DEFAULT = new FieldMatcher(defaultFields());
+
+  // The query used to read the fields of all tables in the current schema.
+  private static final String CATALOG_QUERY = "SELECT c.table_name, c.column_name "
+      + "FROM information_schema.columns c JOIN information_schema.tables t "
+      + "ON c.table_schema = t.table_schema AND c.table_name = t.table_name "
+      + "WHERE c.table_schema = current_schema() AND t.table_type = 'BASE TABLE' "
+      + "ORDER BY c.table_name, c.ordinal_position";
+
+  // The names of all fields, in the order of the schema.
+  private final List<String> fields;
+  // The symbol of each character, where 0 is any character not appearing in the names.
+  private final char[] symbols = new char[Character.MAX_VALUE + 1];
+  // The transitions of the automaton, indexed by the state and then the symbol.
+  private final int[][] transitions;
+  // The indices of the fields matched when reaching each state.
+  private final int[][] outputs;
+
+  /**
+   * Compiles the names of a schema into a matcher.
+   *
+   * @param fieldTables maps the name of each field to the name of its table, in the order of the schema.
+   */
+  public FieldMatcher(final Map<String, String> fieldTables) {
+    this.fields = new ArrayList<>(fieldTables.keySet());
+
+    // Each field has two patterns: its own name, and the quoted name of its table.
+    final List<String> patterns = new ArrayList<>();
+    for (final Map.Entry<String, String> entry: fieldTables.entrySet()) {
+      patterns.add(entry.getKey());
+      patterns.add("\"" + entry.getValue() + "\"");
+    }
+    int numSymbols = 1;
+    for (final String pattern: patterns) {
+      for (final char c: pattern.toCharArray()) {
+        if (symbols[c] == 0) {
+          symbols[c] = (char) numSymbols++;
+        }
+      }
+    }
+
+    // Builds the trie of all patterns.
+    final List<int[]> trie = new ArrayList<>();
+    final List<int[]> matches = new ArrayList<>();
+    trie.add(newState(numSymbols));
+    matches.add(new int[0]);
+    for (int i = 0; i < patterns.size(); i++) {
+      int state = 0;
+      for (final char c: patterns.get(i).toCharArray()) {
+        if (trie.get(state)[symbols[c]] < 0) {
+          trie.get(state)[symbols[c]] = trie.size();
+          trie.add(newState(numSymbols));
+          matches.add(new int[0]);
+        }
+        state = trie.get(state)[symbols[c]];
+      }
+      matches.set(state, append(matches.get(state), i / 2));
+    }
+
+    // Completes the transitions in breadth-first order, following the failure links of the states.
+    final int[] failures = new int[trie.size()];
+    final Queue<Integer> queue = new ArrayDeque<>();
+    for (int symbol = 0; symbol < numSymbols; symbol++) {
+      final int next = trie.get(0)[symbol];
+      if (next < 0) {
+        trie.get(0)[symbol] = 0;
+      } else {
+        queue.add(next);
+      }
+    }
+    while (!queue.isEmpty()) {
+      final int state = queue.poll();
+      for (int symbol = 0; symbol < numSymbols; symbol++) {
+        final int next = trie.get(state)[symbol];
+        final int fallback = trie.get(failures[state])[symbol];
+        if (next < 0) {
+          trie.get(state)[symbol] = fallback;
+        } else {
+          failures[next] = fallback;
+          for (final int field: matches.get(fallback)) {
+            matches.set(next, append(matches.get(next), field));
+          }
+          queue.add(next);
+        }
+      }
+    }
+
+    this.transitions = trie.toArray(new int[0][]);
+    this.outputs = matches.toArray(new int[0][]);
+  }
+
+  /**
+   * Loads the fields of all tables in the current schema from the catalog of the database.
+   *
+   * @param connection is the database connection.
+   * @return the matcher of the schema, which has no field if the schema has no table.
+   * @throws SQLException when there is any database error.
+   */
+  public static FieldMatcher load(final Connection connection) throws SQLException {
+    final Map<String, String> fieldTables = new LinkedHashMap<>();
+    try (Statement statement = connection.createStatement();
+         ResultSet result = statement.executeQuery(CATALOG_QUERY)) {
+      while (result.next()) {
+        fieldTables.putIfAbsent(result.getString(2), result.getString(1));
+      }
+    }
+    return new FieldMatcher(fieldTables);
+  }
+
+  /**
+   * Finds all fields referenced by a query.
+   *
+   * @param query is the query.
+   * @return the referenced fields, in the order of the schema.
+   */
+  public List<String> match(final String query) {
+    final boolean[] found = new boolean[fields.size()];
+    int state = 0;
+    for (int i = 0; i < query.length(); i++) {
+      state = transitions[state][symbols[query.charAt(i)]];
+      for (final int field: outputs[state]) {
+        found[field] = true;
+      }
+    }
+
+    final List<String> result = new ArrayList<>();
+    for (int i = 0; i < found.length; i++) {
+      if (found[i]) {
+        result.add(fields.get(i));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the number of fields in the schema.
+   */
+  public int size() {
+    return fields.size();
+  }
+
+  private static int[] newState(final int numSymbols) {
+    final int[] state = new int[numSymbols];
+    Arrays.fill(state, -1);
+    return state;
+  }
+
+  private static int[] append(final int[] array, final int value) {
+    for (final int element: array) {
+      if (element == value) {
+        return array;
+      }
+    }
+    final int[] result = Arrays.copyOf(array, array.length + 1);
+    result[array.length] = value;
+    return result;
+  }
+
+  private static Map<String, String> defaultFields() {
+    final Map<String, String> result = new LinkedHashMap<>();
+    for (char table = 'a'; table <= 'l'; table++) {
+      result.put(table + "ID", String.valueOf(table));
+    }
+    return result;
+  }
+}
@@ -0,0 +1,47 @@
+package com.yunpengn.tools;
+
+/**
+ * Helpers to write JSON by hand.
+ */
+final class Json {
+  private Json() {
+  }
+
+  /**
+   * Quotes a string as a JSON string literal.
+   *
+   * @param str is the given string.
+   * @return the quoted and escaped string.
+   */
+  static String quote(final String str) {
+    final StringBuilder builder = new StringBuilder(str.length() + 2);
+    builder.append('"');
+    for (int i = 0; i < str.length(); i++) {
+      final char c = str.charAt(i);
+      switch (c) {
+      case '"':
+        builder.append("\\\"");
+        break;
+      case '\\':
+        builder.append("\\\\");
+        break;
+      case '\n':
+        builder.append("\\n");
+        break;
+      case '\r':
+        builder.append("\\r");
+        break;
+      case '\t':
+        builder.append("\\t");
+        break;
+      default:
+        if (c < 0x20) {
+          builder.append(String.format("\\u%04x", (int) c));
+        } else {
+          builder.append(c);
+        }
+      }
+    }
+    return builder.append('"').toString();
+  }
+}
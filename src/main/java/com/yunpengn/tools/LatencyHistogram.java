@@ -0,0 +1,107 @@
+package com.yunpengn.tools;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds. The buckets are log-linear, i.e., each power of two
+ * is split into {@link #SUB_BUCKETS} buckets, which bounds the relative error of percentiles by about 3%.
+ */
+public class LatencyHistogram {
+  // The number of bits used to split each power of two.
+  private static final int SUB_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  // The number of buckets needed to cover all non-negative long values.
+  private static final int NUM_BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+  // The number of values in each bucket.
+  private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+  // The statistics of all values.
+  private final AtomicLong count = new AtomicLong(0);
+  private final AtomicLong sum = new AtomicLong(0);
+  private final AtomicLong max = new AtomicLong(0);
+
+  /**
+   * Records a latency.
+   *
+   * @param nanos is the latency in nanoseconds. Negative values are treated as zero.
+   */
+  public void record(final long nanos) {
+    final long value = Math.max(0, nanos);
+    buckets.incrementAndGet(indexOf(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    max.accumulateAndGet(value, Math::max);
+  }
+
+  /**
+   * @return the number of recorded latencies.
+   */
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * @return the sum of all recorded latencies in nanoseconds.
+   */
+  public long getSum() {
+    return sum.get();
+  }
+
+  /**
+   * @return the maximum recorded latency in nanoseconds.
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Computes a percentile of the recorded latencies. As the buckets are updated concurrently, the result is
+   * only approximate while values are still being recorded.
+   *
+   * @param percentile is the percentile in (0, 100].
+   * @return the upper bound of the bucket which contains the percentile, in nanoseconds.
+   */
+  public long getPercentile(final double percentile) {
+    final long total = count.get();
+    if (total == 0) {
+      return 0;
+    }
+
+    final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      seen += buckets.get(i);
+      if (seen >= rank) {
+        return Math.min(upperBoundOf(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * @param value is a non-negative value.
+   * @return the index of the bucket which contains the value.
+   */
+  static int indexOf(final long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    final int subBucket = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /**
+   * @param index is the index of a bucket.
+   * @return the largest value in the bucket.
+   */
+  static long upperBoundOf(final int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    final int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+    final long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BITS);
+    return lowerBound + (1L << (exponent - SUB_BITS)) - 1;
+  }
+}
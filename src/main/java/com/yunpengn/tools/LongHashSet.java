@@ -0,0 +1,119 @@
+package com.yunpengn.tools;
+
+/**
+ * A set of primitive {@code long} values based on open addressing, which avoids boxing each value.
+ * This class is not thread-safe.
+ */
+public class LongHashSet {
+  // The marker of an empty slot. The value itself is tracked by a separate flag.
+  private static final long EMPTY = 0L;
+  // The maximum ratio of occupied slots before the table grows.
+  private static final double LOAD_FACTOR = 0.5;
+
+  // The slots of the hash table, whose length is always a power of two.
+  private long[] slots;
+  // Whether the value that collides with the empty marker is in this set.
+  private boolean containsEmpty;
+  // The number of values in this set.
+  private int size;
+
+  public LongHashSet() {
+    this(16);
+  }
+
+  public LongHashSet(final int expectedSize) {
+    int capacity = 16;
+    while (capacity * LOAD_FACTOR < expectedSize) {
+      capacity <<= 1;
+    }
+    slots = new long[capacity];
+  }
+
+  /**
+   * Adds a value into this set.
+   *
+   * @param value is the given value.
+   * @return true if the value was not in this set before.
+   */
+  public boolean add(final long value) {
+    if (value == EMPTY) {
+      if (containsEmpty) {
+        return false;
+      }
+      containsEmpty = true;
+      size++;
+      return true;
+    }
+
+    final int index = find(slots, value);
+    if (slots[index] == value) {
+      return false;
+    }
+    slots[index] = value;
+    size++;
+
+    if (size > slots.length * LOAD_FACTOR) {
+      grow();
+    }
+    return true;
+  }
+
+  /**
+   * @param value is the given value.
+   * @return true if the value is in this set.
+   */
+  public boolean contains(final long value) {
+    if (value == EMPTY) {
+      return containsEmpty;
+    }
+    return slots[find(slots, value)] == value;
+  }
+
+  /**
+   * @return the number of values in this set.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Doubles the capacity of the hash table.
+   */
+  private void grow() {
+    final long[] newSlots = new long[slots.length << 1];
+    for (final long value: slots) {
+      if (value != EMPTY) {
+        newSlots[find(newSlots, value)] = value;
+      }
+    }
+    slots = newSlots;
+  }
+
+  /**
+   * Finds the slot which either contains a given value or is the empty slot to put it in.
+   *
+   * @param table is the hash table.
+   * @param value is the given value.
+   * @return the index of that slot.
+   */
+  private static int find(final long[] table, final long value) {
+    final int mask = table.length - 1;
+    int index = (int) mix(value) & mask;
+    while (table[index] != EMPTY && table[index] != value) {
+      index = (index + 1) & mask;
+    }
+    return index;
+  }
+
+  /**
+   * Scrambles the bits of a value, so that similar values spread over the hash table.
+   *
+   * @param value is the given value.
+   * @return the scrambled value.
+   */
+  private static long mix(long value) {
+    value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+    value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return value ^ (value >>> 33);
+  }
+}
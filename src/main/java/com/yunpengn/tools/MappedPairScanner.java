@@ -0,0 +1,264 @@
+package com.yunpengn.tools;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads pairs of queries from the output of Calcite through memory-mapped regions of the file. The bytes
+ * are scanned for the delimiter lines directly, and a section is only decoded into a {@link String} when
+ * its pair is not ignored. The file can be split at pair boundaries, so that the splits are parsed by
+ * several threads in parallel. It expects the same format as {@link QueryPairReader}, with either LF or CRLF
+ * line endings (a CR before a LF is dropped, as {@link java.io.BufferedReader#readLine()} does).
+ */
+public class MappedPairScanner implements Closeable {
+  // The length of a delimiter line, excluding its line break.
+  private static final int DELIMITER_LENGTH = QueryPairReader.PAIR_DELIMITER.length();
+  private static final byte PAIR_MARK = '=';
+  private static final byte INTERNAL_MARK = '-';
+  private static final byte LINE_BREAK = '\n';
+  private static final byte CARRIAGE_RETURN = '\r';
+
+  // The bounds on the size of a split. A split is mapped as a single region, which is limited to 2 GB.
+  private static final long MIN_SPLIT_SIZE = 1L << 20;
+  private static final long MAX_SPLIT_SIZE = 1L << 30;
+  // The number of bytes mapped at a time when looking for a pair boundary.
+  private static final int SEARCH_WINDOW = 1 << 20;
+  // The number of splits per thread, so that threads which finish early can pick up more work.
+  private static final int SPLITS_PER_THREAD = 4;
+
+  // The underlying file.
+  private final FileChannel channel;
+  private final long size;
+  // The descriptions of all rules whose pairs should be skipped, in UTF-8.
+  private final List<ByteBuffer> ignoreRules = new ArrayList<>();
+
+  /**
+   * Opens a file for scanning.
+   *
+   * @param path is the path to the file.
+   * @param ignoreRules are the descriptions of all rules whose pairs should be skipped.
+   * @throws IOException when there is any I/O error.
+   */
+  public MappedPairScanner(final Path path, final Set<String> ignoreRules) throws IOException {
+    this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    this.size = channel.size();
+    for (final String rule: ignoreRules) {
+      this.ignoreRules.add(ByteBuffer.wrap(rule.getBytes(StandardCharsets.UTF_8)));
+      this.ignoreRules.add(ByteBuffer.wrap(rule.replace("\n", "\r\n").getBytes(StandardCharsets.UTF_8)));
+    }
+  }
+
+  /**
+   * Splits the file at pair boundaries, i.e., between the closing delimiter of a pair and the opening
+   * delimiter of the next pair.
+   *
+   * @param numThreads is the number of threads which will parse the splits.
+   * @return the splits in the order of the file.
+   * @throws IOException when there is any I/O error, or a single pair is too large to be mapped.
+   */
+  public List<Split> split(final int numThreads) throws IOException {
+    final long targetSize = Math.min(MAX_SPLIT_SIZE,
+        Math.max(MIN_SPLIT_SIZE, size / Math.max(1, numThreads * SPLITS_PER_THREAD)));
+
+    final List<Split> result = new ArrayList<>();
+    long start = 0;
+    while (start < size) {
+      final long end = start + targetSize >= size ? size : findBoundary(start + targetSize);
+      if (end - start > Integer.MAX_VALUE) {
+        throw new IOException("Unable to find a pair boundary between offset " + start + " and " + end);
+      }
+      result.add(new Split(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start), ignoreRules));
+      start = end;
+    }
+    return result;
+  }
+
+  /**
+   * Finds the first pair boundary after a given offset, by looking for two adjacent pair delimiter lines.
+   *
+   * @param from is the given offset.
+   * @return the offset of the opening delimiter of the next pair, or the size of the file if none.
+   * @throws IOException when there is any I/O error.
+   */
+  private long findBoundary(final long from) throws IOException {
+    // Consecutive windows overlap, so that the two delimiter lines are always in the same window.
+    final int overlap = 2 * (DELIMITER_LENGTH + 2);
+    for (long position = from; position < size; position += SEARCH_WINDOW) {
+      final int length = (int) Math.min(SEARCH_WINDOW + overlap, size - position);
+      final MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+      for (int i = 0; i < Math.min(SEARCH_WINDOW, length); i++) {
+        if (window.get(i) != LINE_BREAK) {
+          continue;
+        }
+        final int lineStart = i + 1;
+        if (!isDelimiter(window, lineStart, length, PAIR_MARK)) {
+          continue;
+        }
+        final int lineEnd = lineStart + DELIMITER_LENGTH;
+        final int nextLineStart = lineEnd + (lineEnd < length && window.get(lineEnd) == CARRIAGE_RETURN ? 2 : 1);
+        if (isDelimiter(window, nextLineStart, length, PAIR_MARK)) {
+          return position + nextLineStart;
+        }
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Checks whether a delimiter line starts at a given offset.
+   *
+   * @param buffer is the buffer to scan.
+   * @param offset is the offset of the start of the line.
+   * @param limit is the end of the buffer.
+   * @param mark is the character which the delimiter consists of.
+   * @return true if the line is a delimiter.
+   */
+  private static boolean isDelimiter(final ByteBuffer buffer, final int offset, final int limit,
+                                     final byte mark) {
+    final int end = offset + DELIMITER_LENGTH;
+    if (end > limit) {
+      return false;
+    } else if (end < limit && buffer.get(end) != LINE_BREAK && (buffer.get(end) != CARRIAGE_RETURN
+        || end + 1 < limit && buffer.get(end + 1) != LINE_BREAK)) {
+      return false;
+    }
+    for (int i = offset; i < end; i++) {
+      if (buffer.get(i) != mark) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * A region of the file which starts at a pair boundary. Each split should only be parsed by one thread.
+   */
+  public static class Split {
+    // The mapped region.
+    private final ByteBuffer buffer;
+    private final int limit;
+    // The descriptions of all rules whose pairs should be skipped, in UTF-8.
+    private final List<ByteBuffer> ignoreRules;
+    // The offset of the next line to parse.
+    private int position = 0;
+
+    private Split(final ByteBuffer buffer, final List<ByteBuffer> ignoreRules) {
+      this.buffer = buffer;
+      this.limit = buffer.limit();
+      this.ignoreRules = ignoreRules;
+    }
+
+    /**
+     * Reads the next pair of queries in this split which is not ignored.
+     *
+     * @return the next pair and the description of its transformation, or null when there is no more pair.
+     */
+    public Map.Entry<QueryPair, String> next() {
+      while (position < limit && isDelimiter(buffer, position, limit, PAIR_MARK)) {
+        // Finds the bounds of the sections, each of which ends at a delimiter line (or the end).
+        final int originStart = skipLine(position);
+        final int originEnd = findDelimiter(originStart, INTERNAL_MARK);
+        final int firstStart = skipLine(originEnd);
+        final int firstEnd = findDelimiter(firstStart, INTERNAL_MARK);
+        final int secondStart = skipLine(firstEnd);
+        final int secondEnd = findDelimiter(secondStart, INTERNAL_MARK);
+        final int descriptionStart = skipLine(secondEnd);
+        final int descriptionEnd = findDelimiter(descriptionStart, PAIR_MARK);
+        position = skipLine(descriptionEnd);
+
+        if (!isIgnored(descriptionStart, descriptionEnd)) {
+          final QueryPair queryPair = new QueryPair(decode(originStart, originEnd),
+              decode(firstStart, firstEnd), decode(secondStart, secondEnd));
+          return new AbstractMap.SimpleImmutableEntry<>(queryPair, decode(descriptionStart, descriptionEnd));
+        }
+      }
+
+      // Stops at the first line which does not open a pair, the same as QueryPairReader does.
+      position = limit;
+      return null;
+    }
+
+    /**
+     * Finds the next delimiter line.
+     *
+     * @param from is the offset of the start of a line.
+     * @param mark is the character which the delimiter consists of.
+     * @return the offset of the start of the delimiter line, or the end of the split if none.
+     */
+    private int findDelimiter(final int from, final byte mark) {
+      int lineStart = from;
+      while (lineStart < limit && !isDelimiter(buffer, lineStart, limit, mark)) {
+        lineStart = skipLine(lineStart);
+      }
+      return lineStart;
+    }
+
+    /**
+     * @param lineStart is the offset of the start of a line.
+     * @return the offset of the start of the next line, or the end of the split if none.
+     */
+    private int skipLine(final int lineStart) {
+      for (int i = lineStart; i < limit; i++) {
+        if (buffer.get(i) == LINE_BREAK) {
+          return i + 1;
+        }
+      }
+      return limit;
+    }
+
+    /**
+     * Checks whether a description is one of the ignored rules, without decoding it.
+     *
+     * @param start is the offset of the start of the description.
+     * @param end is the offset of the end of the description.
+     * @return true if the pair should be skipped.
+     */
+    private boolean isIgnored(final int start, final int end) {
+      final ByteBuffer description = slice(start, end);
+      for (final ByteBuffer rule: ignoreRules) {
+        if (description.equals(rule)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Decodes a section, where every line ends with a line break (as {@link QueryPairReader} does).
+     *
+     * @param start is the offset of the start of the section.
+     * @param end is the offset of the end of the section.
+     * @return the decoded section.
+     */
+    private String decode(final int start, final int end) {
+      String result = StandardCharsets.UTF_8.decode(slice(start, end)).toString();
+      if (result.indexOf(CARRIAGE_RETURN) >= 0) {
+        result = result.replace("\r\n", "\n");
+      }
+      return end > start && buffer.get(end - 1) != LINE_BREAK ? result + "\n" : result;
+    }
+
+    private ByteBuffer slice(final int start, final int end) {
+      final ByteBuffer result = buffer.duplicate();
+      result.limit(end);
+      result.position(start);
+      return result;
+    }
+  }
+}
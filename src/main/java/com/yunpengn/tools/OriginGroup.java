@@ -0,0 +1,151 @@
+package com.yunpengn.tools;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Verifies a group of pairs derived from the same original query in one transaction per connection. All
+ * pairs of the group see the same snapshot, and a query shared by several pairs (e.g., the original query
+ * itself) is executed only once: its result is materialized into a temporary table, which is scanned by the
+ * pairs instead. This is how a group saves work on the server. The statements are not prepared, because no two
+ * statements of a group have the same text, so a server-side plan could never be reused.
+ */
+public class OriginGroup implements AutoCloseable {
+  // The query which materializes the result of a query whose columns are renamed.
+  private static final String MATERIALIZE_QUERY = "CREATE LOCAL TEMPORARY TABLE \"%s\" AS "
+      + "SELECT * FROM (%s) AS \"z\"(%s)";
+  // The query which reads a materialized result.
+  private static final String SCAN_QUERY = "SELECT * FROM \"%s\"";
+  private static final String DROP_QUERY = "DROP TABLE IF EXISTS \"%s\"";
+  // The prefix of the names of the temporary tables.
+  private static final String TABLE_PREFIX = "origin_";
+
+  // The sequence number of the temporary tables, such that their names are never reused.
+  private static final AtomicLong TABLE_SEQUENCE = new AtomicLong(0);
+
+  // The database connections, one per dataset.
+  private final List<Connection> connections;
+  // The queries shared by several pairs of the group, which are worth materializing.
+  private final Set<String> sharedQueries;
+  // The temporary tables holding the results of the shared queries in the current transaction.
+  private final Map<String, String> materialized = new HashMap<>();
+  // All temporary tables created so far, to be dropped at the end.
+  private final List<String> tables = new ArrayList<>();
+  // The isolation level of each connection before the group.
+  private final int[] isolations;
+
+  /**
+   * Starts a transaction on each connection.
+   *
+   * @param connections are the database connections, one per dataset.
+   * @param sharedQueries are the queries shared by several pairs of the group.
+   * @throws SQLException when there is any database error.
+   */
+  public OriginGroup(final List<Connection> connections, final Set<String> sharedQueries) throws SQLException {
+    this.connections = connections;
+    this.sharedQueries = sharedQueries;
+    this.isolations = new int[connections.size()];
+
+    // PostgreSQL does not allow a temporary table to be created in a read-only transaction.
+    for (int i = 0; i < connections.size(); i++) {
+      final Connection connection = connections.get(i);
+      isolations[i] = connection.getTransactionIsolation();
+      connection.setAutoCommit(false);
+      connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+      connection.setReadOnly(sharedQueries.isEmpty());
+    }
+  }
+
+  /**
+   * Gets the query to execute in place of a query of a pair. A shared query is materialized on all
+   * connections when it is first needed, and read from its temporary table afterwards.
+   *
+   * @param query is the query of the pair.
+   * @param budget is the time budget of the pair.
+   * @return the query to execute.
+   * @throws SQLException when there is any database error.
+   */
+  public String resolve(final String query, final QueryWatchdog.Budget budget) throws SQLException {
+    if (!sharedQueries.contains(query)) {
+      return query;
+    }
+    final String existing = materialized.get(query);
+    if (existing != null) {
+      return String.format(SCAN_QUERY, existing);
+    }
+
+    // Renames the columns, such that duplicate column names do not matter.
+    final int numColumns;
+    try (PreparedStatement statement = connections.get(0).prepareStatement(query)) {
+      final ResultSetMetaData metaData = statement.getMetaData();
+      if (metaData == null) {
+        return query;
+      }
+      numColumns = metaData.getColumnCount();
+    }
+    final List<String> columns = new ArrayList<>(numColumns);
+    for (int i = 1; i <= numColumns; i++) {
+      columns.add("\"c" + i + "\"");
+    }
+
+    final String table = TABLE_PREFIX + TABLE_SEQUENCE.incrementAndGet();
+    tables.add(table);
+    final String materializeQuery = String.format(MATERIALIZE_QUERY, table, query, String.join(", ", columns));
+    for (final Connection connection: connections) {
+      try (Statement statement = connection.createStatement()) {
+        budget.register(statement);
+        statement.execute(materializeQuery);
+      }
+    }
+    materialized.put(query, table);
+    return String.format(SCAN_QUERY, table);
+  }
+
+  /**
+   * Rolls back the transactions after a pair fails, such that the remaining pairs of the group start from a
+   * clean transaction (PostgreSQL rejects any statement in a failed transaction).
+   *
+   * @throws SQLException when there is any database error.
+   */
+  public void recover() throws SQLException {
+    materialized.clear();
+    for (final Connection connection: connections) {
+      connection.rollback();
+    }
+  }
+
+  /**
+   * Ends the transactions, drops the temporary tables and restores the connections.
+   *
+   * @throws SQLException when there is any database error.
+   */
+  @Override public void close() throws SQLException {
+    for (int i = 0; i < connections.size(); i++) {
+      final Connection connection = connections.get(i);
+      // All pairs are read-only, so there is nothing to commit.
+      connection.rollback();
+      connection.setAutoCommit(true);
+      connection.setReadOnly(false);
+      connection.setTransactionIsolation(isolations[i]);
+
+      // Some databases (e.g., H2) commit a CREATE TABLE implicitly.
+      if (!tables.isEmpty()) {
+        try (Statement statement = connection.createStatement()) {
+          for (final String table: tables) {
+            statement.addBatch(String.format(DROP_QUERY, table));
+          }
+          statement.executeBatch();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,517 @@
+package com.yunpengn.tools;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A compiled binary form of the output of Calcite, which is read through memory-mapped regions without any
+ * parsing. Each distinct string is stored once, the rules form a dictionary, and each pair is a fixed-size
+ * record of string ids. Thus, any pair can be read directly by its index, and the pairs can be split into
+ * ranges of indices which are read by several threads in parallel.
+ *
+ * <p>The file consists of a header, the strings (each prefixed by its length in bytes), the offsets of the
+ * strings, the dictionary of rules (as string ids) and the records of the pairs (origin, first, second and
+ * rule). A string never crosses a region boundary, so that each region can be mapped on its own. The mapped
+ * regions are released when the store is garbage-collected.
+ */
+public class PairStore {
+  // The extension of the compiled files.
+  public static final String EXTENSION = ".pairs";
+
+  // The magic number ("SQLPAIRS") and the version of the format.
+  private static final long MAGIC = 0x5351_4C50_4149_5253L;
+  private static final int VERSION = 1;
+  // The size of the header, which is followed by the strings.
+  private static final int HEADER_SIZE = 48;
+  // The size of each record of a pair, i.e., 4 string ids.
+  private static final int RECORD_SIZE = 16;
+  // The size of each mapped region. All sections are aligned, so that no value crosses a region boundary.
+  private static final int REGION_BITS = 30;
+  private static final long REGION_SIZE = 1L << REGION_BITS;
+  // The number of ranges per thread, so that threads which finish early can pick up more work.
+  private static final int RANGES_PER_THREAD = 4;
+  // The size of the buffer when compiling.
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  // The mapped regions of the file.
+  private final ByteBuffer[] regions;
+  private final int numPairs;
+  private final long indexOffset;
+  private final long pairsOffset;
+  // The description of each rule, and whether its pairs should be skipped.
+  private final String[] rules;
+  private final boolean[] isIgnored;
+
+  /**
+   * Opens a compiled file.
+   *
+   * @param path is the path to the file.
+   * @param ignoreRules are the descriptions of all rules whose pairs should be skipped.
+   * @throws IOException when there is any I/O error, or the file is not a compiled file.
+   */
+  public PairStore(final Path path, final Set<String> ignoreRules) throws IOException {
+    // The mapped regions stay valid after the channel is closed.
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      regions = new ByteBuffer[(int) ((size + REGION_SIZE - 1) >>> REGION_BITS)];
+      for (int i = 0; i < regions.length; i++) {
+        final long start = (long) i << REGION_BITS;
+        regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, size - start));
+      }
+      if (size < HEADER_SIZE || regions[0].getLong(0) != MAGIC) {
+        throw new IOException(path + " is not a compiled file of pairs.");
+      } else if (regions[0].getInt(8) != VERSION) {
+        throw new IOException(path + " is compiled in an unsupported version " + regions[0].getInt(8) + ".");
+      }
+    }
+
+    final ByteBuffer header = regions[0];
+    this.numPairs = header.getInt(20);
+    this.indexOffset = header.getLong(24);
+    final long rulesOffset = header.getLong(32);
+    this.pairsOffset = header.getLong(40);
+
+    final int numRules = header.getInt(16);
+    this.rules = new String[numRules];
+    this.isIgnored = new boolean[numRules];
+    for (int i = 0; i < numRules; i++) {
+      rules[i] = readString(readInt(rulesOffset + 4L * i));
+      isIgnored[i] = ignoreRules.contains(rules[i]);
+    }
+  }
+
+  /**
+   * Compiles the output of Calcite into a binary file. The file is written under a temporary name first, so
+   * that a partial file is never left behind. Only the hashes and the offsets of the strings are kept in
+   * memory, together with 16 bytes per pair, the rules and (up to a bounded size) the original queries.
+   *
+   * @param inputPath is the path to the output of Calcite, which may be compressed.
+   * @param outputPath is the path to the compiled file.
+   * @return the number of pairs compiled.
+   * @throws IOException when there is any I/O error.
+   */
+  public static int compile(final Path inputPath, final Path outputPath) throws IOException {
+    final Map<Integer, Integer> ruleIds = new HashMap<>();
+    final List<Integer> rules = new ArrayList<>();
+    int[] records = new int[1024];
+    int numPairs = 0;
+
+    final Path tempPath = Paths.get(outputPath + ".tmp");
+    try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      final CountingOutput output = new CountingOutput(channel);
+      final StringTable strings = new StringTable(output);
+      output.pad(HEADER_SIZE);
+
+      // Writes each distinct string when it first appears.
+      try (QueryPairReader reader = new QueryPairReader(new InputStreamReader(
+          CompressedFiles.openInput(inputPath), StandardCharsets.UTF_8), Collections.emptySet())) {
+        Map.Entry<QueryPair, String> entry;
+        while ((entry = reader.next()) != null) {
+          final QueryPair pair = entry.getKey();
+          final int rule = ruleIds.computeIfAbsent(strings.intern(entry.getValue(), true), stringId -> {
+            rules.add(stringId);
+            return rules.size() - 1;
+          });
+          if (numPairs * 4 == records.length) {
+            records = Arrays.copyOf(records, records.length * 2);
+          }
+          records[numPairs * 4] = strings.intern(pair.origin, true);
+          records[numPairs * 4 + 1] = strings.intern(pair.first, false);
+          records[numPairs * 4 + 2] = strings.intern(pair.second, false);
+          records[numPairs * 4 + 3] = rule;
+          numPairs++;
+        }
+      }
+
+      // Writes the offsets of the strings, the dictionary of rules and the records.
+      output.pad((int) (-output.position & (Long.BYTES - 1)));
+      final long indexOffset = output.position;
+      for (int i = 0; i < strings.size; i++) {
+        output.writeLong(strings.offsets[i]);
+      }
+      final long rulesOffset = output.position;
+      for (final int rule: rules) {
+        output.writeInt(rule);
+      }
+      output.pad((int) (-output.position & (RECORD_SIZE - 1)));
+      final long pairsOffset = output.position;
+      for (int i = 0; i < numPairs * 4; i++) {
+        output.writeInt(records[i]);
+      }
+      output.flush();
+
+      // Writes the header at last, so that an incomplete file never looks valid.
+      final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putLong(MAGIC).putInt(VERSION).putInt(strings.size).putInt(rules.size()).putInt(numPairs)
+          .putLong(indexOffset).putLong(rulesOffset).putLong(pairsOffset).flip();
+      channel.write(header, 0);
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(tempPath);
+      throw e;
+    }
+    Files.move(tempPath, outputPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    return numPairs;
+  }
+
+  /**
+   * @return the number of pairs in the file, including those which should be skipped.
+   */
+  public int size() {
+    return numPairs;
+  }
+
+  /**
+   * Reads a pair directly by its index, regardless of whether it should be skipped.
+   *
+   * @param index is the index of the pair.
+   * @return the pair and the description of its transformation.
+   */
+  public Map.Entry<QueryPair, String> get(final int index) {
+    final long record = pairsOffset + (long) RECORD_SIZE * index;
+    final QueryPair queryPair = new QueryPair(readString(readInt(record)), readString(readInt(record + 4)),
+        readString(readInt(record + 8)));
+    return new AbstractMap.SimpleImmutableEntry<>(queryPair, rules[readInt(record + 12)]);
+  }
+
+  /**
+   * Splits the pairs into consecutive ranges of indices.
+   *
+   * @param numThreads is the number of threads which will read the ranges.
+   * @return the ranges in the order of the file.
+   */
+  public List<Range> split(final int numThreads) {
+    final int numRanges = Math.max(1, Math.min(numPairs, numThreads * RANGES_PER_THREAD));
+    final List<Range> result = new ArrayList<>(numRanges);
+    for (int i = 0; i < numRanges; i++) {
+      final int start = (int) ((long) numPairs * i / numRanges);
+      result.add(new Range(start, (int) ((long) numPairs * (i + 1) / numRanges)));
+    }
+    return result;
+  }
+
+  private int readInt(final long offset) {
+    return regions[(int) (offset >>> REGION_BITS)].getInt((int) (offset & (REGION_SIZE - 1)));
+  }
+
+  /**
+   * Decodes a string by its id.
+   *
+   * @param id is the id of the string.
+   * @return the decoded string.
+   */
+  private String readString(final int id) {
+    final long indexEntry = indexOffset + 8L * id;
+    final long offset = regions[(int) (indexEntry >>> REGION_BITS)].getLong((int) (indexEntry & (REGION_SIZE - 1)));
+
+    // Works on a duplicate, such that several threads can decode at the same time.
+    final ByteBuffer region = regions[(int) (offset >>> REGION_BITS)];
+    final int start = (int) (offset & (REGION_SIZE - 1)) + 4;
+    final ByteBuffer bytes = region.duplicate();
+    bytes.limit(start + region.getInt(start - 4));
+    bytes.position(start);
+    return StandardCharsets.UTF_8.decode(bytes).toString();
+  }
+
+  /**
+   * A range of indices of pairs. Each range should only be read by one thread.
+   */
+  public class Range {
+    // The index of the next pair, and the end of the range.
+    private int index;
+    private final int end;
+    // The last original query, which is shared by consecutive pairs most of the time.
+    private int originId = -1;
+    private String origin;
+
+    private Range(final int start, final int end) {
+      this.index = start;
+      this.end = end;
+    }
+
+    /**
+     * Reads the next pair of queries in this range which is not ignored.
+     *
+     * @return the next pair and the description of its transformation, or null when there is no more pair.
+     */
+    public Map.Entry<QueryPair, String> next() {
+      while (index < end) {
+        final long record = pairsOffset + (long) RECORD_SIZE * index++;
+        final int rule = readInt(record + 12);
+        if (isIgnored[rule]) {
+          continue;
+        }
+
+        // Only decodes the original query when it changes.
+        final int nextOriginId = readInt(record);
+        if (nextOriginId != originId) {
+          originId = nextOriginId;
+          origin = readString(originId);
+        }
+        final QueryPair queryPair = new QueryPair(origin, readString(readInt(record + 4)),
+            readString(readInt(record + 8)));
+        return new AbstractMap.SimpleImmutableEntry<>(queryPair, rules[rule]);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * The strings written so far when compiling, keyed by the 64-bit hash of their bytes. Most strings are not
+   * kept in memory: a string with a known hash is compared with the copy written before (which is still in
+   * the buffer of the output most of the time), except for the few most recent strings. The strings which
+   * repeat often but not consecutively (i.e., the rules and the original queries) are kept in memory instead,
+   * up to a bounded number of characters.
+   */
+  private static class StringTable {
+    // The parameters of the 64-bit FNV-1a hash.
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    // The number of recent strings kept in memory.
+    private static final int NUM_RECENT = 4;
+    // The maximum number of characters of the strings kept in memory.
+    private static final long MAX_KEPT_CHARS = 1L << 24;
+
+    // The file being written, which is read back to confirm a string with a known hash.
+    private final CountingOutput output;
+    // The hash table of open addressing, where a slot holds the hash of a string and its id plus one.
+    private long[] hashes = new long[1024];
+    private int[] slotIds = new int[1024];
+    // The offset of each string in the file, by its id.
+    private long[] offsets = new long[1024];
+    private int size = 0;
+    // The most recent strings and their ids, replaced in turn.
+    private final String[] recentStrings = new String[NUM_RECENT];
+    private final int[] recentIds = new int[NUM_RECENT];
+    private int nextRecent = 0;
+    // The ids of the strings kept in memory, and the number of their characters.
+    private final Map<String, Integer> keptIds = new HashMap<>();
+    private long numKeptChars = 0;
+
+    private StringTable(final CountingOutput output) {
+      this.output = output;
+    }
+
+    /**
+     * Gets the id of a string, which is written when it first appears.
+     *
+     * @param str is the given string.
+     * @param keep is whether to keep the string in memory (if there is still room), as it may repeat often.
+     * @return the id of the string.
+     * @throws IOException when there is any I/O error, or the string is too large.
+     */
+    private int intern(final String str, final boolean keep) throws IOException {
+      for (int i = 0; i < NUM_RECENT; i++) {
+        if (str.equals(recentStrings[i])) {
+          return recentIds[i];
+        }
+      }
+      final Integer keptId = keep ? keptIds.get(str) : null;
+      if (keptId != null) {
+        return keptId;
+      }
+
+      final byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+      long hash = FNV_OFFSET;
+      for (final byte b: bytes) {
+        hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+      }
+      final int slot = find(hash);
+      int id = slotIds[slot] - 1;
+      if (id < 0) {
+        id = write(bytes);
+        hashes[slot] = hash;
+        slotIds[slot] = id + 1;
+        if (size * 2 > hashes.length) {
+          grow();
+        }
+      } else if (!matches(offsets[id], bytes)) {
+        // A different string with the same hash is written again, without being interned.
+        id = write(bytes);
+      }
+
+      if (keep && numKeptChars + str.length() <= MAX_KEPT_CHARS) {
+        keptIds.put(str, id);
+        numKeptChars += str.length();
+      }
+      recentStrings[nextRecent] = str;
+      recentIds[nextRecent] = id;
+      nextRecent = (nextRecent + 1) % NUM_RECENT;
+      return id;
+    }
+
+    /**
+     * Writes a string at the end of the file.
+     *
+     * @param bytes is the string in UTF-8.
+     * @return the id of the string.
+     * @throws IOException when there is any I/O error, or the string is too large.
+     */
+    private int write(final byte[] bytes) throws IOException {
+      // Starts a new region if the string would cross the region boundary.
+      final long length = 4L + bytes.length;
+      if (length > REGION_SIZE) {
+        throw new IOException("Unable to compile a string of " + bytes.length + " bytes.");
+      } else if ((output.position & (REGION_SIZE - 1)) + length > REGION_SIZE) {
+        output.pad((int) (REGION_SIZE - (output.position & (REGION_SIZE - 1))));
+      }
+
+      if (size == offsets.length) {
+        offsets = Arrays.copyOf(offsets, size * 2);
+      }
+      offsets[size] = output.position;
+      output.writeInt(bytes.length);
+      output.write(bytes);
+      return size++;
+    }
+
+    /**
+     * Checks whether a string written before has the given content.
+     *
+     * @param offset is the offset of the string written before.
+     * @param bytes is the given content in UTF-8.
+     * @return true if they are the same.
+     * @throws IOException when there is any I/O error.
+     */
+    private boolean matches(final long offset, final byte[] bytes) throws IOException {
+      final ByteBuffer length = ByteBuffer.allocate(4);
+      if (!output.read(offset, length) || length.getInt(0) != bytes.length) {
+        return false;
+      }
+      final ByteBuffer content = ByteBuffer.allocate(bytes.length);
+      return output.read(offset + 4, content) && Arrays.equals(content.array(), bytes);
+    }
+
+    private int find(final long hash) {
+      final int mask = hashes.length - 1;
+      int index = (int) (hash ^ (hash >>> 32)) & mask;
+      while (slotIds[index] != 0 && hashes[index] != hash) {
+        index = (index + 1) & mask;
+      }
+      return index;
+    }
+
+    private void grow() {
+      final long[] oldHashes = hashes;
+      final int[] oldIds = slotIds;
+      hashes = new long[oldHashes.length * 2];
+      slotIds = new int[oldIds.length * 2];
+      for (int i = 0; i < oldHashes.length; i++) {
+        if (oldIds[i] != 0) {
+          final int index = find(oldHashes[i]);
+          hashes[index] = oldHashes[i];
+          slotIds[index] = oldIds[i];
+        }
+      }
+    }
+  }
+
+  /**
+   * A buffered output which keeps track of its position in the file. Anything written can be read back, from
+   * the file or from the buffer, without flushing the buffer.
+   */
+  private static class CountingOutput {
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    // The position in the file after everything written, including the content of the buffer.
+    private long position = 0;
+
+    private CountingOutput(final FileChannel channel) {
+      this.channel = channel;
+    }
+
+    private void writeInt(final int value) throws IOException {
+      reserve(Integer.BYTES);
+      buffer.putInt(value);
+      position += Integer.BYTES;
+    }
+
+    private void writeLong(final long value) throws IOException {
+      reserve(Long.BYTES);
+      buffer.putLong(value);
+      position += Long.BYTES;
+    }
+
+    private void write(final byte[] bytes) throws IOException {
+      if (bytes.length > buffer.capacity()) {
+        flush();
+        final ByteBuffer content = ByteBuffer.wrap(bytes);
+        while (content.hasRemaining()) {
+          channel.write(content);
+        }
+      } else {
+        reserve(bytes.length);
+        buffer.put(bytes);
+      }
+      position += bytes.length;
+    }
+
+    private void pad(final int length) throws IOException {
+      for (int i = 0; i < length; i++) {
+        reserve(1);
+        buffer.put((byte) 0);
+      }
+      position += length;
+    }
+
+    /**
+     * Reads back some content written before.
+     *
+     * @param offset is the offset of the content in the file.
+     * @param target receives the content, as many bytes as it has room for.
+     * @return false if the content is beyond what has been written.
+     * @throws IOException when there is any I/O error.
+     */
+    private boolean read(final long offset, final ByteBuffer target) throws IOException {
+      if (offset + target.remaining() > position) {
+        return false;
+      }
+
+      // Reads the part which has been flushed from the file, and the rest from the buffer.
+      final long bufferStart = position - buffer.position();
+      while (target.hasRemaining() && offset + target.position() < bufferStart) {
+        final int limit = target.limit();
+        target.limit((int) Math.min(limit, bufferStart - offset));
+        final int numRead = channel.read(target, offset + target.position());
+        target.limit(limit);
+        if (numRead < 0) {
+          return false;
+        }
+      }
+      if (target.hasRemaining()) {
+        target.put(buffer.array(), (int) (offset + target.position() - bufferStart), target.remaining());
+      }
+      return true;
+    }
+
+    private void reserve(final int length) throws IOException {
+      if (buffer.remaining() < length) {
+        flush();
+      }
+    }
+
+    private void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+  }
+}
@@ -6,14 +6,32 @@ import java.util.Objects;
  * An abstraction to store the query input format.
  */
 public class QueryPair {
+  // The parameters of the 64-bit FNV-1a hash.
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
   public final String origin;
   public final String first;
   public final String second;
 
+  // The 64-bit hash of the content.
+  private final long contentHash;
+
   public QueryPair(final String origin, final String first, final String second) {
     this.origin = origin;
     this.first = first;
     this.second = second;
+    this.contentHash = hash(hash(hash(FNV_OFFSET, origin), first), second);
+  }
+
+  /**
+   * Unlike {@link #hashCode()}, this hash is wide enough to identify a pair among millions of pairs,
+   * and it is stable across different runs of the program.
+   *
+   * @return the 64-bit hash of the content of this pair.
+   */
+  public long contentHash() {
+    return contentHash;
   }
 
   @Override public boolean equals(final Object other) {
@@ -32,4 +50,20 @@ public class QueryPair {
   @Override public int hashCode() {
     return Objects.hash(origin, first, second);
   }
+
+  /**
+   * Feeds a string into a 64-bit FNV-1a hash.
+   *
+   * @param hash is the current hash value.
+   * @param str is the given string.
+   * @return the new hash value.
+   */
+  private static long hash(long hash, final String str) {
+    for (int i = 0; i < str.length(); i++) {
+      hash = (hash ^ str.charAt(i)) * FNV_PRIME;
+    }
+
+    // Also feeds the length, so that the boundaries between strings matter.
+    return (hash ^ str.length()) * FNV_PRIME;
+  }
 }
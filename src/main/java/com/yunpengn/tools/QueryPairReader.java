@@ -0,0 +1,84 @@
+package com.yunpengn.tools;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads pairs of queries from the output of Calcite incrementally, such that only one pair is kept
+ * in memory at a time.
+ */
+public class QueryPairReader implements Closeable {
+  // The default delimiter used in the input.
+  static final String PAIR_DELIMITER
+      = "=============================================================";
+  static final String INTERNAL_DELIMITER
+      = "-------------------------------------------------------------";
+  private static final String LINE_DELIMITER = "\n";
+
+  // The underlying reader.
+  private final BufferedReader reader;
+  // All rules that we want to ignore.
+  private final Set<String> ignoreRules;
+
+  /**
+   * Creates a new {@link QueryPairReader}.
+   *
+   * @param reader is the underlying reader.
+   * @param ignoreRules are the descriptions of all rules whose pairs should be skipped.
+   */
+  public QueryPairReader(final Reader reader, final Set<String> ignoreRules) {
+    this.reader = new BufferedReader(reader);
+    this.ignoreRules = ignoreRules;
+  }
+
+  /**
+   * Reads the next pair of queries which is not ignored.
+   *
+   * @return the next pair and the description of its transformation, or null when there is no more pair.
+   * @throws IOException when there is any I/O error.
+   */
+  public Map.Entry<QueryPair, String> next() throws IOException {
+    while (PAIR_DELIMITER.equals(reader.readLine())) {
+      final String origin = readUntil(INTERNAL_DELIMITER);
+      final String first = readUntil(INTERNAL_DELIMITER);
+      final String second = readUntil(INTERNAL_DELIMITER);
+      final String description = readUntil(PAIR_DELIMITER);
+
+      if (!ignoreRules.contains(description)) {
+        final QueryPair queryPair = new QueryPair(origin, first, second);
+        return new AbstractMap.SimpleImmutableEntry<>(queryPair, description);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Reads until EOF or we meet a line which contains a given delimiter.
+   *
+   * @param delimiter is the given delimiter.
+   * @return the lines before the EOF or delimiter, concatenated together.
+   * @throws IOException when there is any I/O error.
+   */
+  private String readUntil(final String delimiter) throws IOException {
+    final StringBuilder result = new StringBuilder();
+
+    // Reads line by line until we meet EOF or the delimiter.
+    String currentLine = reader.readLine();
+    while (currentLine != null && !currentLine.equals(delimiter)) {
+      result.append(currentLine).append(LINE_DELIMITER);
+      currentLine = reader.readLine();
+    }
+
+    // Returns the result.
+    return result.toString();
+  }
+
+  @Override public void close() throws IOException {
+    reader.close();
+  }
+}
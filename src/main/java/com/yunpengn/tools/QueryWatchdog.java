@@ -0,0 +1,146 @@
+package com.yunpengn.tools;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enforces time budgets on the statements of a pair. Each statement gets a query timeout for the remaining
+ * budget, and a watchdog thread cancels the running statement once the budget is used up, in case the
+ * driver fails to do so.
+ */
+public class QueryWatchdog implements AutoCloseable {
+  // The SQL state of a statement cancelled by the user (or by a timeout).
+  private static final String QUERY_CANCELED_STATE = "57014";
+
+  // The thread which cancels statements.
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    final Thread thread = new Thread(runnable, "query-watchdog");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * Starts the time budget of a pair.
+   *
+   * @param budgetMillis is the budget in milliseconds, or a non-positive value for an unlimited budget.
+   * @return the budget, which should be closed when the pair is done.
+   */
+  public Budget start(final long budgetMillis) {
+    final Budget budget = new Budget(budgetMillis);
+    if (budgetMillis > 0) {
+      budget.task = scheduler.schedule(budget::expire, budgetMillis, TimeUnit.MILLISECONDS);
+    }
+    return budget;
+  }
+
+  /**
+   * Checks whether an exception is caused by a statement being cancelled.
+   *
+   * @param e is the exception.
+   * @return true if the statement was cancelled or timed out.
+   */
+  public static boolean isCancellation(final SQLException e) {
+    return e instanceof SQLTimeoutException || QUERY_CANCELED_STATE.equals(e.getSQLState());
+  }
+
+  @Override public void close() {
+    scheduler.shutdownNow();
+  }
+
+  /**
+   * The time budget of a pair, shared by all of its statements.
+   */
+  public static class Budget implements AutoCloseable {
+    // The budget in milliseconds.
+    private final long budgetMillis;
+    // The time when the budget is started.
+    private final long startTime;
+    // The task which expires this budget.
+    private ScheduledFuture<?> task;
+    // The statement being executed at the moment.
+    private volatile Statement current;
+    // Whether the budget has been used up.
+    private volatile boolean expired;
+
+    private Budget(final long budgetMillis) {
+      this.budgetMillis = budgetMillis;
+      this.startTime = System.nanoTime();
+    }
+
+    /**
+     * Registers a statement before executing it, such that it is cancelled when the budget is used up.
+     *
+     * @param statement is the statement.
+     * @throws SQLException when the budget has been used up already.
+     */
+    public void register(final Statement statement) throws SQLException {
+      if (budgetMillis <= 0) {
+        return;
+      }
+
+      final long remainingMillis = budgetMillis - getElapsedMillis();
+      if (remainingMillis <= 0) {
+        expired = true;
+        throw new SQLTimeoutException("The time budget of " + budgetMillis + " ms has been used up.");
+      }
+      statement.setQueryTimeout((int) Math.max(1, (remainingMillis + 999) / 1000));
+      current = statement;
+
+      // The watchdog may have fired before the statement was registered.
+      if (expired) {
+        statement.cancel();
+      }
+    }
+
+    /**
+     * @return true if the budget has been used up.
+     */
+    public boolean isExpired() {
+      return expired;
+    }
+
+    /**
+     * @return the time since the budget is started, in milliseconds.
+     */
+    public long getElapsedMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Uses up the budget early and cancels the current statement, e.g., when the result is known already.
+     */
+    public void cancel() {
+      expire();
+    }
+
+    /**
+     * Cancels the current statement.
+     */
+    private void expire() {
+      expired = true;
+      final Statement statement = current;
+      if (statement != null) {
+        try {
+          // The statement may have finished already.
+          if (!statement.isClosed()) {
+            statement.cancel();
+          }
+        } catch (SQLException e) {
+          System.err.println("Unable to cancel a statement: " + e);
+        }
+      }
+    }
+
+    @Override public void close() {
+      if (task != null) {
+        task.cancel(false);
+      }
+      current = null;
+    }
+  }
+}
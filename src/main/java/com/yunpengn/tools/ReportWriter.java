@@ -0,0 +1,373 @@
+package com.yunpengn.tools;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes the reports of verified pairs on a dedicated thread. Workers hand their reports over through a
+ * bounded queue, and the writer thread drains them in batches, so that workers never contend on the
+ * output files. Each report goes into the text log of its verdict (if any), and into a JSONL log which
+ * has one line per pair. All logs can be compressed with gzip.
+ *
+ * <p>The final verdict of a pair is only recorded into the journal after its report is flushed, and the logs
+ * are forced onto the disk before each sync of the journal, such that a resumed run never skips a pair whose
+ * report is lost.
+ */
+public class ReportWriter implements AutoCloseable {
+  // The default delimiter used in result output.
+  private static final String PAIR_DELIMITER = QueryPairReader.PAIR_DELIMITER;
+  private static final String INTERNAL_DELIMITER = QueryPairReader.INTERNAL_DELIMITER;
+
+  // The suffixes of the logs, after the prefix of the current shard.
+  public static final String OUT_SUFFIX = ".log";
+  public static final String ERR_SUFFIX = ".err.log";
+  public static final String TIMEOUT_SUFFIX = ".timeout.log";
+  public static final String JSONL_SUFFIX = ".jsonl";
+
+  // The number of pending reports allowed before the workers block.
+  private static final int QUEUE_CAPACITY = 4096;
+  // The maximum number of reports written in a batch.
+  private static final int MAX_BATCH_SIZE = 256;
+  // The size of the buffer of each log.
+  private static final int BUFFER_SIZE = 1 << 20;
+  private static final double NANOS_PER_MILLI = 1e6;
+
+  // Marks the end of the reports.
+  private static final Report END = new Report(null, null, null, null, 0, 0, 0, null, false);
+
+  // The pending reports.
+  private final BlockingQueue<Report> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+  // The text logs of wrong pairs, erroneous pairs and pairs which time out.
+  private final Writer outWriter;
+  private final Writer errWriter;
+  private final Writer timeoutWriter;
+  // The JSONL log of all pairs (null if disabled).
+  private final Writer jsonWriter;
+  // The channels of all logs, which are forced onto the disk before each sync of the journal.
+  private final List<FileChannel> channels = new ArrayList<>();
+  // The journal of the verdicts of all verified pairs (null if the verdicts are not recorded).
+  private final VerificationJournal journal;
+  // The thread which writes the reports.
+  private final Thread thread;
+  // The first error met by the writer thread.
+  private volatile IOException failure;
+
+  public ReportWriter(final VerifierOptions options) throws IOException {
+    this(options, null);
+  }
+
+  /**
+   * Opens the logs and starts the writer thread.
+   *
+   * @param options are the options of the verification, which decide the paths and the formats.
+   * @param journal is the journal which the final verdicts are recorded into (or null if not recorded).
+   * @throws IOException when there is any I/O error.
+   */
+  public ReportWriter(final VerifierOptions options, final VerificationJournal journal) throws IOException {
+    this.journal = journal;
+    this.outWriter = openLog(options, OUT_SUFFIX);
+    this.errWriter = openLog(options, ERR_SUFFIX);
+    this.timeoutWriter = openLog(options, TIMEOUT_SUFFIX);
+    this.jsonWriter = options.reportJsonl ? openLog(options, JSONL_SUFFIX) : null;
+
+    this.thread = new Thread(this::run, "report-writer");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Gets the suffixes of all logs written with the given options.
+   *
+   * @param options are the options of the verification.
+   * @return the suffixes, after the prefix of the current shard.
+   */
+  public static List<String> suffixes(final VerifierOptions options) {
+    final List<String> result = new ArrayList<>(Arrays.asList(OUT_SUFFIX, ERR_SUFFIX, TIMEOUT_SUFFIX));
+    if (options.reportJsonl) {
+      result.add(JSONL_SUFFIX);
+    }
+    if (options.reportGzip) {
+      result.replaceAll(suffix -> suffix + CompressedFiles.GZIP_EXTENSION);
+    }
+    return result;
+  }
+
+  /**
+   * Hands a report over to the writer thread, waiting only if too many reports are pending.
+   *
+   * @param report is the report of a pair.
+   * @throws InterruptedException when interrupted while waiting.
+   */
+  public void write(final Report report) throws InterruptedException {
+    queue.put(report);
+  }
+
+  /**
+   * Writes all pending reports, and closes the logs. If interrupted, this still waits for the writer thread,
+   * such that no report is lost, and restores the interrupt status afterwards.
+   *
+   * @throws IOException when there is any I/O error.
+   */
+  @Override public void close() throws IOException {
+    boolean isInterrupted = false;
+    while (true) {
+      try {
+        queue.put(END);
+        break;
+      } catch (InterruptedException e) {
+        isInterrupted = true;
+      }
+    }
+    while (thread.isAlive()) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        isInterrupted = true;
+      }
+    }
+    if (isInterrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    for (final Writer writer: Arrays.asList(outWriter, errWriter, timeoutWriter, jsonWriter)) {
+      if (writer != null) {
+        writer.close();
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Writes reports in batches until the end. The logs are flushed whenever there is no pending report.
+   */
+  private void run() {
+    final List<Report> batch = new ArrayList<>(MAX_BATCH_SIZE);
+    while (true) {
+      try {
+        batch.add(queue.take());
+      } catch (InterruptedException e) {
+        return;
+      }
+      queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+
+      boolean isEnd = false;
+      final List<Report> written = new ArrayList<>(batch.size());
+      for (final Report report: batch) {
+        if (report == END) {
+          isEnd = true;
+          break;
+        }
+        // Any failure is kept until the end, such that the thread keeps draining the queue for the workers.
+        try {
+          writeReport(report);
+          written.add(report);
+        } catch (IOException | RuntimeException e) {
+          keepFailure(e);
+          System.err.println("Unable to write the report: " + e);
+        }
+      }
+      batch.clear();
+
+      // The reports always reach the files before their verdicts reach the journal.
+      if (isEnd || queue.isEmpty() || journal != null && !written.isEmpty()) {
+        flush();
+      }
+      record(written, isEnd);
+      if (isEnd) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Records the final verdicts of the written reports into the journal. Whenever the journal is due to be
+   * synced (or at the end), the logs are forced onto the disk first.
+   *
+   * @param reports are the reports which have been written and flushed.
+   * @param isEnd is whether these are the last reports.
+   */
+  private void record(final List<Report> reports, final boolean isEnd) {
+    if (journal == null) {
+      return;
+    }
+    try {
+      boolean isSyncDue = isEnd;
+      for (final Report report: reports) {
+        if (report.isFinal) {
+          isSyncDue |= journal.record(report.pair, report.verdict);
+        }
+      }
+      if (isSyncDue) {
+        for (final FileChannel channel: channels) {
+          channel.force(false);
+        }
+        journal.sync();
+      }
+    } catch (IOException e) {
+      keepFailure(e);
+      System.err.println("Unable to write into the journal: " + e);
+    }
+  }
+
+  private void keepFailure(final Exception e) {
+    if (failure == null) {
+      failure = e instanceof IOException ? (IOException) e : new IOException(e);
+    }
+  }
+
+  /**
+   * Writes a report into the logs.
+   *
+   * @param report is the report of a pair.
+   * @throws IOException when there is any I/O error.
+   */
+  private void writeReport(final Report report) throws IOException {
+    switch (report.verdict) {
+    case WRONG:
+      outWriter.write(formatText(report));
+      break;
+    case ERROR:
+      errWriter.write(formatText(report));
+      break;
+    case TIMEOUT:
+      timeoutWriter.write(formatText(report));
+      break;
+    default:
+      break;
+    }
+
+    if (jsonWriter != null) {
+      jsonWriter.write(formatJson(report));
+    }
+  }
+
+  private void flush() {
+    try {
+      for (final Writer writer: Arrays.asList(outWriter, errWriter, timeoutWriter, jsonWriter)) {
+        if (writer != null) {
+          writer.flush();
+        }
+      }
+    } catch (IOException e) {
+      System.err.println("Unable to flush the report: " + e);
+    }
+  }
+
+  /**
+   * Formats a report in the text layout, which can be read back by {@link QueryPairReader}.
+   *
+   * @param report is the report of a pair.
+   * @return the formatted report.
+   */
+  private static String formatText(final Report report) {
+    return PAIR_DELIMITER + "\n"
+        + report.description
+        + "\n\nOriginal query:\n\n"
+        + report.pair.origin + "\n"
+        + INTERNAL_DELIMITER + "\n"
+        + "First query:\n\n"
+        + report.pair.first + "\n"
+        + INTERNAL_DELIMITER + "\n"
+        + "Second query:\n\n"
+        + report.pair.second + "\n"
+        + INTERNAL_DELIMITER + "\n"
+        + report.type + "\n"
+        + PAIR_DELIMITER + "\n";
+  }
+
+  /**
+   * Formats a report as a line of JSON.
+   *
+   * @param report is the report of a pair.
+   * @return the formatted report.
+   */
+  private static String formatJson(final Report report) {
+    return "{\"hash\": \"" + Long.toHexString(report.pair.contentHash())
+        + "\", \"rule\": " + Json.quote(report.type.trim())
+        + ", \"verdict\": \"" + report.verdict
+        + "\", \"parseMs\": " + toMillis(report.parseNanos)
+        + ", \"wrapMs\": " + toMillis(report.wrapNanos)
+        + ", \"executeMs\": " + (report.executeNanos < 0 ? "null" : toMillis(report.executeNanos))
+        + ", \"error\": " + (report.error == null ? "null" : Json.quote(report.error))
+        + "}\n";
+  }
+
+  private static String toMillis(final long nanos) {
+    return String.format(Locale.ROOT, "%.3f", nanos / NANOS_PER_MILLI);
+  }
+
+  /**
+   * Opens a log for writing. The existing content is kept only when resuming a run (a gzip file then gets
+   * another member, which is still a valid gzip file).
+   *
+   * @param options are the options of the verification.
+   * @param suffix is the suffix of the log.
+   * @return the writer of the log.
+   * @throws IOException when there is any I/O error.
+   */
+  private Writer openLog(final VerifierOptions options, final String suffix) throws IOException {
+    final FileChannel channel = FileChannel.open(
+        options.outputPath(options.reportGzip ? suffix + CompressedFiles.GZIP_EXTENSION : suffix),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        options.resume ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+    channels.add(channel);
+    final OutputStream output = CompressedFiles.openOutput(channel, options.reportGzip);
+    return new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), BUFFER_SIZE);
+  }
+
+  /**
+   * The report of a verified pair.
+   */
+  public static class Report {
+    // The pair of queries.
+    public final QueryPair pair;
+    // The type of the transformation.
+    public final String type;
+    // The verdict of the pair.
+    public final VerificationJournal.Verdict verdict;
+    // The description of the verdict in the text logs.
+    public final String description;
+    // The time spent on each phase, where a negative execution time means the pair is not executed.
+    public final long parseNanos;
+    public final long wrapNanos;
+    public final long executeNanos;
+    // The error met by the pair (or null if none).
+    public final String error;
+    // Whether the verdict is final and recorded into the journal, i.e., the pair is not kept for a retry.
+    public final boolean isFinal;
+
+    public Report(final QueryPair pair, final String type, final VerificationJournal.Verdict verdict,
+                  final String description, final long parseNanos, final long wrapNanos,
+                  final long executeNanos, final String error) {
+      this(pair, type, verdict, description, parseNanos, wrapNanos, executeNanos, error, true);
+    }
+
+    public Report(final QueryPair pair, final String type, final VerificationJournal.Verdict verdict,
+                  final String description, final long parseNanos, final long wrapNanos,
+                  final long executeNanos, final String error, final boolean isFinal) {
+      this.pair = pair;
+      this.type = type;
+      this.verdict = verdict;
+      this.description = description;
+      this.parseNanos = parseNanos;
+      this.wrapNanos = wrapNanos;
+      this.executeNanos = executeNanos;
+      this.error = error;
+      this.isFinal = isFinal;
+    }
+  }
+}
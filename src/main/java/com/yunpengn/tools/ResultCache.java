@@ -0,0 +1,168 @@
+package com.yunpengn.tools;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded LRU cache of the fingerprints of query results, keyed by the hash of the normalized SQL text.
+ * Concurrent lookups of the same query wait for a single execution instead of running it again.
+ */
+public class ResultCache {
+  // The parameters of the 64-bit FNV-1a hash.
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  /**
+   * Computes the fingerprint of a query on a cache miss.
+   */
+  public interface Loader {
+    ResultDigest load() throws SQLException;
+  }
+
+  // The maximum number of fingerprints kept in this cache.
+  private final int capacity;
+  // The cached fingerprints, in their access order.
+  private final Map<Long, CompletableFuture<ResultDigest>> entries;
+
+  // The statistics of this cache.
+  private final AtomicLong hitCount = new AtomicLong(0);
+  private final AtomicLong missCount = new AtomicLong(0);
+
+  /**
+   * Creates a new {@link ResultCache}.
+   *
+   * @param capacity is the maximum number of fingerprints kept in this cache.
+   */
+  public ResultCache(final int capacity) {
+    this.capacity = capacity;
+    this.entries = new LinkedHashMap<Long, CompletableFuture<ResultDigest>>(16, 0.75f, true) {
+      @Override protected boolean removeEldestEntry(final Map.Entry<Long, CompletableFuture<ResultDigest>> eldest) {
+        return size() > ResultCache.this.capacity;
+      }
+    };
+  }
+
+  /**
+   * Gets the fingerprint of the result of a query, either from this cache or from the given loader. Only the
+   * row count and the hashes are cached, not the exact rows of a small result. If the execution which the
+   * current thread waits for is cancelled (e.g., by the budget of another pair), the query is executed again
+   * under the budget of the current pair instead.
+   *
+   * @param query is the SQL text of the query.
+   * @param loader computes the fingerprint if it is not in this cache.
+   * @return the fingerprint of the result.
+   * @throws SQLException when the loader meets any database error.
+   */
+  public ResultDigest get(final String query, final Loader loader) throws SQLException {
+    final Long key = normalizedHash(query);
+    while (true) {
+      // Finds the existing entry, or claims the entry for the current thread.
+      final CompletableFuture<ResultDigest> future;
+      final boolean isOwner;
+      synchronized (entries) {
+        final CompletableFuture<ResultDigest> existing = entries.get(key);
+        if (existing == null) {
+          future = new CompletableFuture<>();
+          entries.put(key, future);
+          isOwner = true;
+        } else {
+          future = existing;
+          isOwner = false;
+        }
+      }
+
+      // Computes the fingerprint on a miss.
+      if (isOwner) {
+        missCount.incrementAndGet();
+        try {
+          final ResultDigest digest = loader.load();
+          future.complete(digest.withoutRows());
+          return digest;
+        } catch (SQLException | RuntimeException e) {
+          synchronized (entries) {
+            entries.remove(key, future);
+          }
+          future.completeExceptionally(e);
+          throw e;
+        }
+      }
+
+      // Waits for the owner otherwise.
+      try {
+        final ResultDigest digest = future.get();
+        hitCount.incrementAndGet();
+        return digest;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SQLException("Interrupted while waiting for the result of the same query.", e);
+      } catch (ExecutionException e) {
+        if (!(e.getCause() instanceof SQLException)) {
+          throw new SQLException(e.getCause());
+        } else if (!QueryWatchdog.isCancellation((SQLException) e.getCause())) {
+          throw (SQLException) e.getCause();
+        }
+        // The entry has been removed by the owner, so the query runs again (or waits for another owner).
+      }
+    }
+  }
+
+  /**
+   * @return the number of lookups served from this cache.
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * @return the number of lookups which had to execute the query.
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Computes the hash of a query after normalization, i.e., runs of whitespace outside quotes are treated
+   * as a single space, and leading/trailing whitespace and semicolons are ignored.
+   *
+   * @param query is the SQL text of the query.
+   * @return the 64-bit hash of the normalized text.
+   */
+  static long normalizedHash(final String query) {
+    // Trims the leading and trailing whitespace & semicolons.
+    int start = 0;
+    int end = query.length();
+    while (start < end && Character.isWhitespace(query.charAt(start))) {
+      start++;
+    }
+    while (end > start && (Character.isWhitespace(query.charAt(end - 1)) || query.charAt(end - 1) == ';')) {
+      end--;
+    }
+
+    long hash = FNV_OFFSET;
+    char quote = 0;
+    boolean pendingSpace = false;
+    for (int i = start; i < end; i++) {
+      final char c = query.charAt(i);
+      if (quote == 0 && Character.isWhitespace(c)) {
+        pendingSpace = true;
+        continue;
+      }
+
+      if (pendingSpace) {
+        hash = (hash ^ ' ') * FNV_PRIME;
+        pendingSpace = false;
+      }
+      if (quote == 0 && (c == '\'' || c == '"')) {
+        quote = c;
+      } else if (c == quote) {
+        quote = 0;
+      }
+      hash = (hash ^ c) * FNV_PRIME;
+    }
+    return hash;
+  }
+}
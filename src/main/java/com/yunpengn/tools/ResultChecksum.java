@@ -0,0 +1,90 @@
+package com.yunpengn.tools;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A one-row summary of the result of a query, computed inside the database: the number of rows and the
+ * sums of two independent hashes over all rows. Unlike a set difference, it needs neither a sort nor a
+ * hash table of the whole result. Two results with the same rows (including duplicates) always have the
+ * same checksum, so equal checksums are accepted and only different ones need an exact comparison.
+ */
+public class ResultChecksum {
+  // The query which computes the checksum of a query whose columns are renamed.
+  private static final String CHECKSUM_QUERY = "SELECT COUNT(*), SUM(\"h1\"), SUM(\"h2\") FROM "
+      + "(SELECT %s FROM (%s) AS \"z\"(%s)) AS \"y\"";
+  // The text of a column in a row, where NULL is distinct from any integer.
+  private static final String COLUMN_TEXT = "COALESCE(CAST(\"%s\" AS VARCHAR), '\\N')";
+  // The separator between the columns of a row.
+  private static final String COLUMN_SEPARATOR = " || CHR(31) || ";
+
+  // The number of rows in the result.
+  public final long rowCount;
+  // The sums of the two row hashes over all rows, in their decimal form (as they may exceed 64 bits).
+  private final String sumA;
+  private final String sumB;
+
+  public ResultChecksum(final long rowCount, final String sumA, final String sumB) {
+    this.rowCount = rowCount;
+    this.sumA = sumA;
+    this.sumB = sumB;
+  }
+
+  /**
+   * Computes the checksum of the result of a query inside the database.
+   *
+   * @param connection is the database connection.
+   * @param query is the query to summarize.
+   * @param backend is the database engine, which decides the hash functions.
+   * @param budget is the time budget of the statements.
+   * @return the checksum of the result, or null if the columns of the query are unknown.
+   * @throws SQLException when there is any database error.
+   */
+  public static ResultChecksum compute(final Connection connection, final String query, final Backend backend,
+                                       final QueryWatchdog.Budget budget) throws SQLException {
+    // Renames the columns, such that duplicate or missing column names do not matter.
+    final int numColumns;
+    try (PreparedStatement statement = connection.prepareStatement(query)) {
+      final ResultSetMetaData metaData = statement.getMetaData();
+      if (metaData == null) {
+        return null;
+      }
+      numColumns = metaData.getColumnCount();
+    }
+    final List<String> columns = new ArrayList<>(numColumns);
+    final List<String> texts = new ArrayList<>(numColumns);
+    for (int i = 1; i <= numColumns; i++) {
+      columns.add("\"c" + i + "\"");
+      texts.add(String.format(COLUMN_TEXT, "c" + i));
+    }
+
+    final String row = String.join(COLUMN_SEPARATOR, texts);
+    final String checksumQuery = String.format(CHECKSUM_QUERY, backend.rowHashes(row), query,
+        String.join(", ", columns));
+    try (Statement statement = connection.createStatement()) {
+      budget.register(statement);
+      try (ResultSet result = statement.executeQuery(checksumQuery)) {
+        result.next();
+        return new ResultChecksum(result.getLong(1), result.getString(2), result.getString(3));
+      }
+    }
+  }
+
+  /**
+   * Checks whether two results have the same checksum, i.e., they are very likely the same multi-set of
+   * rows.
+   *
+   * @param other is the checksum of the other result.
+   * @return true if their checksums are the same.
+   */
+  public boolean sameAs(final ResultChecksum other) {
+    return rowCount == other.rowCount && Objects.equals(sumA, other.sumA) && Objects.equals(sumB, other.sumB);
+  }
+}
@@ -0,0 +1,145 @@
+package com.yunpengn.tools;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An order-insensitive fingerprint of the result of a query. Two results with the same rows (including
+ * the number of duplicates of each row) always have the same fingerprint, regardless of their ordering.
+ */
+public class ResultDigest {
+  // The seeds of the two independent row hashes.
+  private static final long SEED_A = 0x9e3779b97f4a7c15L;
+  private static final long SEED_B = 0xc2b2ae3d27d4eb4fL;
+  // The multiplier used to feed a character into a row hash.
+  private static final long PRIME = 0x100000001b3L;
+  // The markers which separate columns and represent NULL values.
+  private static final char COLUMN_MARKER = '\u001f';
+  private static final char NULL_MARKER = '\u0000';
+
+  // The number of rows in the result.
+  public final long rowCount;
+  // The sums of the two row hashes over all rows, which are commutative over the multi-set of rows.
+  private final long sumA;
+  private final long sumB;
+  // The exact multi-set of rows, which is only kept for small results (otherwise null).
+  private final Map<String, Integer> rows;
+
+  public ResultDigest(final long rowCount, final long sumA, final long sumB, final Map<String, Integer> rows) {
+    this.rowCount = rowCount;
+    this.sumA = sumA;
+    this.sumB = sumB;
+    this.rows = rows;
+  }
+
+  /**
+   * Executes a query and computes the fingerprint of its result. The result is streamed with the given
+   * fetch size, so that it is never fully materialized at the client side.
+   *
+   * @param connection is the database connection.
+   * @param query is the query to execute.
+   * @param fetchSize is the number of rows to fetch in each round trip.
+   * @param exactLimit is the maximum number of rows for which the exact rows are kept as well. When both
+   *                   results fit in this limit, they are compared exactly instead of by their hashes.
+   * @param budget is the time budget of the statement.
+   * @return the fingerprint of the result.
+   * @throws SQLException when there is any database error.
+   */
+  public static ResultDigest compute(final Connection connection, final String query, final int fetchSize,
+                                     final int exactLimit, final QueryWatchdog.Budget budget)
+      throws SQLException {
+    // PostgreSQL only streams the result with a cursor inside a transaction.
+    final boolean autoCommit = connection.getAutoCommit();
+    connection.setAutoCommit(false);
+    try (Statement statement = connection.createStatement()) {
+      statement.setFetchSize(fetchSize);
+      budget.register(statement);
+
+      try (ResultSet result = statement.executeQuery(query)) {
+        final int numColumns = result.getMetaData().getColumnCount();
+        final StringBuilder row = new StringBuilder();
+        Map<String, Integer> rows = exactLimit > 0 ? new HashMap<>() : null;
+        long rowCount = 0;
+        long sumA = 0;
+        long sumB = 0;
+
+        while (result.next()) {
+          long hashA = SEED_A;
+          long hashB = SEED_B;
+          row.setLength(0);
+          for (int i = 1; i <= numColumns; i++) {
+            final String value = result.getString(i);
+            if (value == null) {
+              row.append(NULL_MARKER);
+            } else {
+              row.append(value);
+            }
+            row.append(COLUMN_MARKER);
+          }
+          for (int i = 0; i < row.length(); i++) {
+            hashA = (hashA ^ row.charAt(i)) * PRIME;
+            hashB = Long.rotateLeft(hashB ^ row.charAt(i), 31) * SEED_A;
+          }
+
+          rowCount++;
+          sumA += mix(hashA);
+          sumB += mix(hashB);
+          if (rows != null) {
+            rows.merge(row.toString(), 1, Integer::sum);
+            if (rowCount > exactLimit) {
+              rows = null;
+            }
+          }
+        }
+
+        return new ResultDigest(rowCount, sumA, sumB, rows);
+      }
+    } finally {
+      // The query is read-only, so there is nothing to commit. A transaction started by the caller (e.g., of
+      // an origin group) is left open.
+      if (autoCommit) {
+        connection.rollback();
+        connection.setAutoCommit(true);
+      }
+    }
+  }
+
+  /**
+   * @return the same fingerprint without the exact rows, which is small enough to be cached.
+   */
+  public ResultDigest withoutRows() {
+    return rows == null ? this : new ResultDigest(rowCount, sumA, sumB, null);
+  }
+
+  /**
+   * Checks whether two results are the same multi-set of rows. The exact rows are compared if both of
+   * them are available, otherwise we fall back to the 128-bit hash.
+   *
+   * @param other is the fingerprint of the other result.
+   * @return true if their results are the same.
+   */
+  public boolean sameAs(final ResultDigest other) {
+    if (rowCount != other.rowCount || sumA != other.sumA || sumB != other.sumB) {
+      return false;
+    } else if (rows != null && other.rows != null) {
+      return rows.equals(other.rows);
+    }
+    return true;
+  }
+
+  /**
+   * Scrambles the bits of a row hash, so that the sum over rows does not cancel out.
+   *
+   * @param value is the given row hash.
+   * @return the scrambled value.
+   */
+  private static long mix(long value) {
+    value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+    value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return value ^ (value >>> 33);
+  }
+}
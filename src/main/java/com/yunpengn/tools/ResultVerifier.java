@@ -1,24 +1,44 @@
 package com.yunpengn.tools;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
 /**
  * Compares the results of pairs of SQL queries.
@@ -26,57 +46,104 @@ import java.util.stream.Collectors;
 public class ResultVerifier {
   // The query used to check the difference of the results of two queries.
   private static final String META_QUERY = "((%s) EXCEPT (%s)) UNION ALL ((%s) EXCEPT (%s));";
+  // The query which returns the index of a pair in a batch if the results of the pair are different.
+  private static final String BATCH_PART_QUERY = "SELECT %d AS \"pair\" WHERE EXISTS "
+      + "(((%s) EXCEPT (%s)) UNION ALL ((%s) EXCEPT (%s)))";
+  private static final String BATCH_SEPARATOR = " UNION ALL ";
   // The query used to wrap the input.
   private static final String WRAP_QUERY = "SELECT \"%s\" from (%s) AS \"z\"";
 
-  // The field names to look for in the queries.
-  private static final List<String> FIELD_NAMES = Arrays.asList(
-      "aID", "bID", "cID", "dID", "eID", "fID", "gID", "hID", "iID", "jID", "kID", "lID"
-  );
-
   // All rules that we want to ignore.
   private static final Set<String> IGNORE_RULES = new HashSet<>(Arrays.asList(
       "org.apache.calcite.rel.rules.custom.BestMatchNullifyPullUpRule\n"
   ));
 
-  // The maximum number of queries to verify.
-  private static final int MAX_QUERIES = 1_000_000;
-
-  // The expected number of tables.
+  // The expected number of tables (i.e., fields) in a root node.
   private static final int NUM_TABLES = 5;
 
-  // The default delimiter used in result output.
-  private static final String PAIR_DELIMITER
-      = "=============================================================";
-  private static final String INTERNAL_DELIMITER
-      = "-------------------------------------------------------------";
-  private static final String LINE_DELIMITER = "\n";
-
   // The batch size used when printing progress bar.
   private static final int BATCH_SIZE = 10;
 
+  // The number of pending pairs allowed per worker before the submitter blocks.
+  private static final int QUEUE_FACTOR = 4;
+
   // The description for output.
   private static final String WRONG_DESC = "The following 2 queries are not equivalent.";
   private static final String ERROR_DESC = "Meet exception when comparing the following 2 queries: %s.";
+  private static final String TIMEOUT_DESC = "The following 2 queries time out after %d ms (budget: %d ms)%s.";
 
-  // The names of the files to store logs.
-  private static final Path OUT_PATH = Paths.get("out.log");
-  private static final Path ERR_PATH = Paths.get("out.err.log");
+  // The suffixes of the files to store logs, after the prefix of the current shard.
+  public static final String SUMMARY_SUFFIX = ".summary";
+  private static final String JOURNAL_SUFFIX = ".journal";
+  private static final String METRICS_SUFFIX = ".metrics.json";
 
   // Whether to wrap the input.
   private final boolean wrapInput;
-  // Database connection.
-  private final Connection connection;
+  // The pools of database connections, one per dataset, each of which has one connection per worker.
+  private final List<ConnectionPool> connectionPools;
+  // The options to tune the verification.
+  private final VerifierOptions options;
+  // The cache of the fingerprints of query results (null if disabled).
+  private final ResultCache resultCache;
+
+  // The counters used to report progress.
+  private final AtomicInteger count = new AtomicInteger(0);
+  private final AtomicInteger wrongCount = new AtomicInteger(0);
+  private final AtomicInteger errorCount = new AtomicInteger(0);
+  private final AtomicInteger timeoutCount = new AtomicInteger(0);
+  private final AtomicInteger readCount = new AtomicInteger(0);
+  private final AtomicInteger duplicateCount = new AtomicInteger(0);
+  private final AtomicInteger resumedCount = new AtomicInteger(0);
+  // The number of pairs whose checksums are different, thus compared exactly.
+  private final AtomicInteger escalatedCount = new AtomicInteger(0);
+  // The number of pairs verified in batches, and the number of batches verified pair by pair due to an error.
+  private final AtomicInteger batchedCount = new AtomicInteger(0);
+  private final AtomicInteger unbatchedCount = new AtomicInteger(0);
+  // The latencies of the pairs.
+  private final VerifierMetrics metrics = new VerifierMetrics();
+  // The pairs which time out, to be retried at the end.
+  private final Queue<Map.Entry<QueryPair, String>> quarantine = new ConcurrentLinkedQueue<>();
+
+  // Writes the reports of the pairs in the current run.
+  private ReportWriter reportWriter;
+  // The journal of the verdicts of all verified pairs.
+  private VerificationJournal journal;
+  // Finds the fields referenced by a query, compiled from the schema of the database.
+  private FieldMatcher fieldMatcher = FieldMatcher.DEFAULT;
+  // Checks the datasets of a pair in parallel (null if there is only one dataset).
+  private ExecutorService datasetExecutor;
+  // Limits the number of groups in flight when each group runs on its own virtual thread (null otherwise).
+  private Semaphore workerPermits;
+  // Cancels the statements of the pairs which use up their time budgets in the current run.
+  private QueryWatchdog watchdog;
 
   /**
    * Creates a new {@link ResultVerifier}.
    *
    * @param wrapInput is a flag on whether the input queries should be wrapped.
-   * @param connection is the database connection.
+   * @param connectionPool is the pool of database connections. Its size decides the concurrency level.
+   * @param options are the options to tune the verification.
    */
-  public ResultVerifier(final boolean wrapInput, final Connection connection) {
+  public ResultVerifier(final boolean wrapInput, final ConnectionPool connectionPool,
+                        final VerifierOptions options) {
+    this(wrapInput, Collections.singletonList(connectionPool), options);
+  }
+
+  /**
+   * Creates a new {@link ResultVerifier} which verifies each pair on several datasets.
+   *
+   * @param wrapInput is a flag on whether the input queries should be wrapped.
+   * @param connectionPools are the pools of database connections, one per dataset in the same order as
+   *                        {@link VerifierOptions#datasets}. They should have the same size, which decides
+   *                        the concurrency level.
+   * @param options are the options to tune the verification.
+   */
+  public ResultVerifier(final boolean wrapInput, final List<ConnectionPool> connectionPools,
+                        final VerifierOptions options) {
     this.wrapInput = wrapInput;
-    this.connection = connection;
+    this.connectionPools = connectionPools;
+    this.options = options;
+    this.resultCache = options.cacheSize > 0 ? new ResultCache(options.cacheSize) : null;
   }
 
   /**
@@ -84,193 +151,1007 @@ public class ResultVerifier {
    *
    * @param fileName is the name of the given file.
    * @throws IOException when there is any I/O error.
+   * @throws InterruptedException when interrupted while waiting for the workers.
+   */
+  public void verify(final String fileName) throws IOException, InterruptedException {
+    // When resuming, skips all pairs in the journal and appends to the existing logs.
+    final Path journalPath = options.outputPath(JOURNAL_SUFFIX);
+    final LongHashSet finishedPairs = options.resume
+        ? VerificationJournal.readFinishedPairs(journalPath) : new LongHashSet();
+    if (options.resume) {
+      System.out.printf("Resuming a previous run with %d pairs verified.\n", finishedPairs.size());
+    }
+    if (options.shardCount > 1) {
+      System.out.printf("Verifying shard %d of %d.\n", options.shardIndex, options.shardCount);
+    }
+
+    fieldMatcher = loadSchema(connectionPools.get(0));
+
+    // Opens the logs of wrong pairs, erroneous pairs, pairs which time out and all pairs, whose writer
+    // records the verdicts into the journal.
+    journal = new VerificationJournal(journalPath, options.resume, options.journalSyncInterval);
+    try {
+      reportWriter = new ReportWriter(options, journal);
+    } catch (IOException e) {
+      journal.close();
+      throw e;
+    }
+
+    // Reads the input incrementally, and hands each pair to one of the workers. The submitter blocks
+    // whenever the workers fall behind, so that only a bounded number of pairs are kept in memory.
+    count.set(0);
+    wrongCount.set(0);
+    errorCount.set(0);
+    timeoutCount.set(0);
+    readCount.set(0);
+    duplicateCount.set(0);
+    resumedCount.set(0);
+    escalatedCount.set(0);
+    batchedCount.set(0);
+    unbatchedCount.set(0);
+    quarantine.clear();
+    watchdog = new QueryWatchdog();
+    ExecutorService executor = createExecutor(connectionPools.get(0).size());
+    if (connectionPools.size() > 1) {
+      final ExecutorService virtualExecutor = options.virtualThreads ? newVirtualThreadExecutor() : null;
+      datasetExecutor = virtualExecutor != null
+          ? virtualExecutor : Executors.newFixedThreadPool(connectionPools.size() * connectionPools.get(0).size());
+    }
+    final ScheduledExecutorService metricsDumper = Executors.newSingleThreadScheduledExecutor();
+    if (options.metricsInterval > 0) {
+      metricsDumper.scheduleAtFixedRate(this::dumpMetrics, options.metricsInterval, options.metricsInterval,
+          TimeUnit.SECONDS);
+    }
+    final LongHashSet seenPairs = new LongHashSet();
+    try {
+      // A compressed input cannot be mapped, and is decompressed on a separate thread instead.
+      final Path inputPath = Paths.get(fileName);
+      if (inputPath.getFileName().toString().endsWith(PairStore.EXTENSION)) {
+        readStore(inputPath, executor, finishedPairs, seenPairs);
+      } else if (options.parseThreads > 0 && !CompressedFiles.isCompressed(inputPath)) {
+        readMapped(inputPath, executor, finishedPairs, seenPairs);
+      } else {
+        try (QueryPairReader reader = new QueryPairReader(
+            new InputStreamReader(CompressedFiles.openInput(inputPath), StandardCharsets.UTF_8), IGNORE_RULES)) {
+          readPairs(reader::next, executor, finishedPairs, seenPairs);
+        }
+      }
+
+      // Waits for all workers to finish.
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+      // Retries the pairs which time out with a larger budget.
+      if (options.retryTimeoutMillis > 0 && !quarantine.isEmpty()) {
+        System.out.printf("Going to retry %d pairs which time out, with a budget of %d ms ...\n",
+            quarantine.size(), options.retryTimeoutMillis);
+        executor = createExecutor(connectionPools.get(0).size());
+        Map.Entry<QueryPair, String> entry;
+        while ((entry = quarantine.poll()) != null) {
+          submitGroup(executor, Collections.singletonList(new PendingPair(entry.getKey(), entry.getValue(), 0)),
+              options.retryTimeoutMillis, true);
+        }
+      }
+    } finally {
+      // Waits for all workers to finish.
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      if (datasetExecutor != null) {
+        datasetExecutor.shutdownNow();
+      }
+      watchdog.close();
+      metricsDumper.shutdownNow();
+      dumpMetrics();
+
+      // Closes the output streams, where all pending reports are written before the journal is closed.
+      try {
+        reportWriter.close();
+      } finally {
+        journal.close();
+      }
+    }
+    System.out.printf("We have discovered %d pairs of queries (%d duplicates & %d verified before skipped).\n",
+        readCount.get(), duplicateCount.get(), resumedCount.get());
+    System.out.printf("Finished: %d verified (%d wrong & %d error & %d timeout).\n",
+        count.get(), wrongCount.get(), errorCount.get(), timeoutCount.get());
+    if (resultCache != null && options.compareMode == VerifierOptions.CompareMode.FINGERPRINT) {
+      System.out.printf("Result cache: %d hits & %d misses.\n", resultCache.getHitCount(),
+          resultCache.getMissCount());
+    }
+    if (options.compareMode == VerifierOptions.CompareMode.CHECKSUM) {
+      System.out.printf("Checksums: %d pairs compared exactly due to different checksums.\n",
+          escalatedCount.get());
+    }
+    if (options.batchSize > 1) {
+      System.out.printf("Batches: %d pairs verified in batches & %d batches verified pair by pair.\n",
+          batchedCount.get(), unbatchedCount.get());
+    }
+  }
+
+  /**
+   * Loads the fields of the tables in the database, which are looked for when wrapping queries.
+   *
+   * @param connectionPool is the pool of connections to the database.
+   * @return the matcher of the schema, or the default schema if the database has no table.
+   * @throws InterruptedException when interrupted while waiting for a connection.
+   */
+  static FieldMatcher loadSchema(final ConnectionPool connectionPool) throws InterruptedException {
+    final Connection connection = connectionPool.borrow();
+    try {
+      final FieldMatcher matcher = FieldMatcher.load(connection);
+      if (matcher.size() > 0) {
+        return matcher;
+      }
+      System.err.println("Found no table in the database, use the default schema instead.");
+    } catch (SQLException e) {
+      System.err.println("Unable to load the schema, use the default schema instead: " + e);
+    } finally {
+      connectionPool.release(connection);
+    }
+    return FieldMatcher.DEFAULT;
+  }
+
+  /**
+   * Reads all pairs from a source, and submits those which should be verified by this run. Consecutive pairs
+   * derived from the same original query are submitted together as a group (or any consecutive pairs, when
+   * only batching is enabled).
+   *
+   * @param source is the source of pairs.
+   * @param executor is the executor of the workers.
+   * @param finishedPairs are the hashes of the pairs verified by a previous run.
+   * @param seenPairs are the hashes of the pairs read so far, shared by all sources.
+   * @throws IOException when there is any I/O error.
+   * @throws InterruptedException when interrupted while waiting for a worker.
+   */
+  private void readPairs(final PairSource source, final ExecutorService executor, final LongHashSet finishedPairs,
+                         final LongHashSet seenPairs) throws IOException, InterruptedException {
+    List<PendingPair> group = new ArrayList<>();
+    while (true) {
+      final long parseStart = System.nanoTime();
+      final Map.Entry<QueryPair, String> entry = source.next();
+      if (entry == null) {
+        break;
+      }
+      final long parseNanos = System.nanoTime() - parseStart;
+
+      final long contentHash = entry.getKey().contentHash();
+      if (!options.ownsPair(contentHash)) {
+        continue;
+      }
+      readCount.incrementAndGet();
+      if (options.deduplicate) {
+        final boolean isNew;
+        synchronized (seenPairs) {
+          isNew = seenPairs.add(contentHash);
+        }
+        if (!isNew) {
+          duplicateCount.incrementAndGet();
+          continue;
+        }
+      }
+      if (finishedPairs.contains(contentHash)) {
+        resumedCount.incrementAndGet();
+        continue;
+      }
+
+      final QueryPair pair = entry.getKey();
+      if (!group.isEmpty() && (group.size() >= options.taskSize()
+          || options.groupSize > 1 && !group.get(0).pair.origin.equals(pair.origin))) {
+        submitGroup(executor, group, options.timeoutMillis, false);
+        group = new ArrayList<>();
+      }
+      group.add(new PendingPair(pair, entry.getValue(), parseNanos));
+    }
+    if (!group.isEmpty()) {
+      submitGroup(executor, group, options.timeoutMillis, false);
+    }
+  }
+
+  /**
+   * Reads all pairs from a memory-mapped file, whose splits are parsed by several threads in parallel.
+   *
+   * @param path is the path to the file.
+   * @param executor is the executor of the workers.
+   * @param finishedPairs are the hashes of the pairs verified by a previous run.
+   * @param seenPairs are the hashes of the pairs read so far.
+   * @throws IOException when there is any I/O error.
+   * @throws InterruptedException when interrupted while waiting for the parsers.
+   */
+  private void readMapped(final Path path, final ExecutorService executor, final LongHashSet finishedPairs,
+                          final LongHashSet seenPairs) throws IOException, InterruptedException {
+    final ExecutorService parsers = Executors.newFixedThreadPool(options.parseThreads);
+    try (MappedPairScanner scanner = new MappedPairScanner(path, IGNORE_RULES)) {
+      final List<Callable<Void>> tasks = new ArrayList<>();
+      for (final MappedPairScanner.Split split: scanner.split(options.parseThreads)) {
+        tasks.add(() -> {
+          readPairs(split::next, executor, finishedPairs, seenPairs);
+          return null;
+        });
+      }
+
+      for (final Future<Void> future: parsers.invokeAll(tasks)) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          throw new IOException("Unable to parse " + path, e.getCause());
+        }
+      }
+    } finally {
+      parsers.shutdownNow();
+    }
+  }
+
+  /**
+   * Reads all pairs from a compiled file, whose ranges of pairs are read by several threads in parallel.
+   *
+   * @param path is the path to the file.
+   * @param executor is the executor of the workers.
+   * @param finishedPairs are the hashes of the pairs verified by a previous run.
+   * @param seenPairs are the hashes of the pairs read so far.
+   * @throws IOException when there is any I/O error.
+   * @throws InterruptedException when interrupted while waiting for the readers.
    */
-  public void verify(final String fileName) throws IOException {
-    // Reads the input.
-    final Map<QueryPair, String> pairs = readInput(fileName);
-    System.out.printf("We have discovered %d pairs of queries.\n", pairs.size());
-
-    // Output stream to output log.
-    final Writer outWriter = Files.newBufferedWriter(OUT_PATH);
-    // Output stream to error log.
-    final Writer errWriter = Files.newBufferedWriter(ERR_PATH);
-
-    // Compares each pair of queries.
-    final AtomicInteger count = new AtomicInteger(0);
-    final AtomicInteger wrongCount = new AtomicInteger(0);
-    final AtomicInteger errorCount = new AtomicInteger(0);
-
-    pairs.entrySet().parallelStream().forEach(entry -> {
-      // Wraps the query to guarantee select ordering.
-      String queryA = entry.getKey().first;
-      if (wrapInput) {
-        queryA = wrapQuery(queryA, false);
+  private void readStore(final Path path, final ExecutorService executor, final LongHashSet finishedPairs,
+                         final LongHashSet seenPairs) throws IOException, InterruptedException {
+    final PairStore store = new PairStore(path, IGNORE_RULES);
+    final int numThreads = Math.max(1, options.parseThreads);
+    final ExecutorService readers = Executors.newFixedThreadPool(numThreads);
+    try {
+      final List<Callable<Void>> tasks = new ArrayList<>();
+      for (final PairStore.Range range: store.split(numThreads)) {
+        tasks.add(() -> {
+          readPairs(range::next, executor, finishedPairs, seenPairs);
+          return null;
+        });
       }
-      String queryB = entry.getKey().second;
-      if (wrapInput) {
-        queryB = wrapQuery(queryB, true);
+
+      for (final Future<Void> future: readers.invokeAll(tasks)) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          throw new IOException("Unable to read " + path, e.getCause());
+        }
       }
+    } finally {
+      readers.shutdownNow();
+    }
+  }
+
+  /**
+   * @return the number of pairs verified in the last run.
+   */
+  public int getVerifiedCount() {
+    return count.get();
+  }
+
+  /**
+   * @return the number of pairs which are not equivalent in the last run.
+   */
+  public int getWrongCount() {
+    return wrongCount.get();
+  }
+
+  /**
+   * @return the number of pairs which meet an exception in the last run.
+   */
+  public int getErrorCount() {
+    return errorCount.get();
+  }
 
-      // Checks the query.
-      if (!queryA.isEmpty() && !queryB.isEmpty()) {
+  /**
+   * @return the number of pairs which time out in the last run.
+   */
+  public int getTimeoutCount() {
+    return timeoutCount.get();
+  }
+
+  /**
+   * Submits a group of pairs to be verified by one of the workers, on the connections owned by it.
+   *
+   * @param executor is the executor of the workers.
+   * @param group are the pairs derived from the same original query.
+   * @param budgetMillis is the time budget of each pair (or 0 for an unlimited budget).
+   * @param isRetry is whether the pairs have timed out before.
+   * @throws InterruptedException when interrupted while waiting for a worker.
+   */
+  private void submitGroup(final ExecutorService executor, final List<PendingPair> group,
+                           final long budgetMillis, final boolean isRetry) throws InterruptedException {
+    final Semaphore permits = workerPermits;
+    if (permits != null) {
+      permits.acquire();
+    }
+    try {
+      executor.execute(() -> {
+        // Borrows one connection per dataset. There are as many connections in each pool as workers, so
+        // a worker never waits for a connection held by another worker.
+        final List<Connection> connections = new ArrayList<>(connectionPools.size());
         try {
-          if (!compareQueryResult(connection, queryA, queryB)) {
-            wrongCount.incrementAndGet();
-            printQueryPair(outWriter, entry.getKey(), WRONG_DESC, entry.getValue());
+          for (final ConnectionPool connectionPool: connectionPools) {
+            connections.add(connectionPool.borrow());
+          }
+          verifyGroup(connections, group, budgetMillis, isRetry);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        } finally {
+          for (int i = 0; i < connections.size(); i++) {
+            connectionPools.get(i).release(connections.get(i));
           }
+          if (permits != null) {
+            permits.release();
+          }
+        }
+
+        // Prints the progress bar (if necessary).
+        final int currentCount = isRetry ? count.get() : count.addAndGet(group.size());
+        if (isRetry || currentCount / BATCH_SIZE != (currentCount - group.size()) / BATCH_SIZE) {
+          System.out.printf("Progress: %d verified (%d wrong & %d error & %d timeout).\n",
+              currentCount, wrongCount.get(), errorCount.get(), timeoutCount.get());
+        }
+      });
+    } catch (RuntimeException e) {
+      // The task never runs (e.g., rejected during a shutdown), thus never releases its permit.
+      if (permits != null) {
+        permits.release();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Dumps the metrics and the counters collected so far into the metrics file and the summary file.
+   */
+  private void dumpMetrics() {
+    try {
+      metrics.dump(options.outputPath(METRICS_SUFFIX));
+      dumpSummary(options.outputPath(SUMMARY_SUFFIX));
+    } catch (IOException e) {
+      System.err.println("Unable to dump the metrics: " + e);
+    }
+  }
+
+  /**
+   * Writes the counters of the current run into a properties file, which is replaced atomically. They are
+   * collected by {@link ShardCoordinator} to report the progress of all shards.
+   *
+   * @param path is the path to the file.
+   * @throws IOException when there is any I/O error.
+   */
+  private void dumpSummary(final Path path) throws IOException {
+    final Properties summary = new Properties();
+    summary.setProperty("read", String.valueOf(readCount.get()));
+    summary.setProperty("duplicate", String.valueOf(duplicateCount.get()));
+    summary.setProperty("resumed", String.valueOf(resumedCount.get()));
+    summary.setProperty("verified", String.valueOf(count.get()));
+    summary.setProperty("wrong", String.valueOf(wrongCount.get()));
+    summary.setProperty("error", String.valueOf(errorCount.get()));
+    summary.setProperty("timeout", String.valueOf(timeoutCount.get()));
+
+    final Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+    try (Writer writer = Files.newBufferedWriter(tempPath)) {
+      summary.store(writer, null);
+    }
+    Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Creates the executor of the workers. By default, it has a fixed number of worker threads and a bounded
+   * work queue: when the queue is full, the submitter blocks until a worker picks up a pending group. With
+   * virtual threads, each group runs on its own thread instead, and the submitter blocks until one of the
+   * groups in flight finishes.
+   *
+   * @param numWorkers is the number of groups verified at the same time, i.e., the size of each pool.
+   * @return the executor.
+   */
+  private ExecutorService createExecutor(final int numWorkers) {
+    workerPermits = null;
+    if (options.virtualThreads) {
+      final ExecutorService executor = newVirtualThreadExecutor();
+      if (executor != null) {
+        workerPermits = new Semaphore(numWorkers);
+        return executor;
+      }
+      System.err.println("Virtual threads are not supported by this JVM, use platform threads instead.");
+    }
+
+    final RejectedExecutionHandler blockWhenFull = (task, executor) -> {
+      try {
+        executor.getQueue().put(task);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RejectedExecutionException(e);
+      }
+    };
+
+    return new ThreadPoolExecutor(numWorkers, numWorkers, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(numWorkers * QUEUE_FACTOR), blockWhenFull);
+  }
+
+  /**
+   * Creates an executor which starts a virtual thread per task. It is looked up reflectively, since
+   * virtual threads are only available since Java 21.
+   *
+   * @return the executor, or null if the JVM does not support virtual threads.
+   */
+  private static ExecutorService newVirtualThreadExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Verifies a group of pairs derived from the same original query. A group of several pairs is verified in
+   * one transaction on each connection, where the queries shared by the pairs are only executed once. The
+   * pairs are compared in batches if enabled.
+   *
+   * @param connections are the database connections owned by the current worker, one per dataset.
+   * @param group are the pairs of the group.
+   * @param budgetMillis is the time budget of each pair (or 0 for an unlimited budget).
+   * @param isRetry is whether the pairs have timed out before.
+   * @throws InterruptedException when interrupted while waiting for the datasets to be checked.
+   */
+  private void verifyGroup(final List<Connection> connections, final List<PendingPair> group,
+                           final long budgetMillis, final boolean isRetry) throws InterruptedException {
+    // Wraps the queries to guarantee select ordering.
+    final String[] queriesA = new String[group.size()];
+    final String[] queriesB = new String[group.size()];
+    final long[] wrapNanos = new long[group.size()];
+    final Map<String, Integer> queryUses = new HashMap<>();
+    for (int i = 0; i < group.size(); i++) {
+      final long wrapStart = System.nanoTime();
+      final QueryPair pair = group.get(i).pair;
+      queriesA[i] = wrapInput ? wrapQuery(pair.first, false, fieldMatcher) : pair.first;
+      queriesB[i] = wrapInput ? wrapQuery(pair.second, true, fieldMatcher) : pair.second;
+      wrapNanos[i] = System.nanoTime() - wrapStart;
+      if (!queriesA[i].isEmpty() && !queriesB[i].isEmpty()) {
+        queryUses.merge(queriesA[i], 1, Integer::sum);
+        queryUses.merge(queriesB[i], 1, Integer::sum);
+      }
+    }
+
+    // The result cache shares the results of the same query already in the fingerprint mode.
+    OriginGroup originGroup = null;
+    if (options.groupSize > 1 && group.size() > 1) {
+      final Set<String> sharedQueries = new HashSet<>();
+      if (options.compareMode != VerifierOptions.CompareMode.FINGERPRINT || resultCache == null) {
+        queryUses.forEach((query, uses) -> {
+          if (uses > 1) {
+            sharedQueries.add(query);
+          }
+        });
+      }
+      try {
+        originGroup = new OriginGroup(connections, sharedQueries);
+      } catch (SQLException e) {
+        System.err.println("Unable to start the transaction of a group, verify its pairs separately: " + e);
+      }
+    }
+
+    try {
+      for (int start = 0; start < group.size(); start += options.batchSize) {
+        final int end = Math.min(group.size(), start + options.batchSize);
+        final boolean[] isSame = verifyBatch(connections, originGroup, group, queriesA, queriesB, wrapNanos,
+            start, end, budgetMillis, isRetry);
+        if (isSame != null) {
+          continue;
+        }
+
+        // Verifies each pair on its own, either because batching is disabled or the batch failed.
+        for (int i = start; i < end; i++) {
+          final PendingPair pending = group.get(i);
+          verifyPair(connections, originGroup, pending.pair, pending.type, queriesA[i], queriesB[i],
+              pending.parseNanos, wrapNanos[i], budgetMillis, isRetry);
+        }
+      }
+    } finally {
+      if (originGroup != null) {
+        try {
+          originGroup.close();
         } catch (SQLException e) {
+          System.err.println("Unable to end the transaction of a group: " + e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Verifies a single pair of queries and logs the pair if they are not equivalent. A pair which uses up
+   * its time budget is logged into the quarantine, and kept for a retry (if this is not a retry already).
+   *
+   * @param connections are the database connections owned by the current worker, one per dataset.
+   * @param originGroup is the group which the pair is verified in (or null if verified on its own).
+   * @param pair is the pair of queries.
+   * @param type is the type of the transformation.
+   * @param queryA is the wrapped first query (or an empty string if the pair should be skipped).
+   * @param queryB is the wrapped second query (or an empty string if the pair should be skipped).
+   * @param parseNanos is the time spent on parsing the pair from the input.
+   * @param wrapNanos is the time spent on wrapping the queries.
+   * @param budgetMillis is the time budget of the pair (or 0 for an unlimited budget).
+   * @param isRetry is whether the pair has timed out before.
+   * @throws InterruptedException when interrupted while waiting for the datasets to be checked.
+   */
+  private void verifyPair(final List<Connection> connections, final OriginGroup originGroup,
+                          final QueryPair pair, final String type, final String queryA, final String queryB,
+                          final long parseNanos, final long wrapNanos, final long budgetMillis,
+                          final boolean isRetry) throws InterruptedException {
+    // Checks the query.
+    if (queryA.isEmpty() || queryB.isEmpty()) {
+      finishPair(pair, type, VerificationJournal.Verdict.SKIPPED, null, null, parseNanos, wrapNanos, -1, isRetry);
+      return;
+    }
+    final long executeStart = System.nanoTime();
+    metrics.startExecution();
+    VerificationJournal.Verdict verdict;
+    String description = null;
+    String error = null;
+    try (QueryWatchdog.Budget budget = watchdog.start(budgetMillis)) {
+      try {
+        final String resolvedA = originGroup == null ? queryA : originGroup.resolve(queryA, budget);
+        final String resolvedB = originGroup == null ? queryB : originGroup.resolve(queryB, budget);
+        if (compareOnDatasets(connections, originGroup, resolvedA, resolvedB, budget, budgetMillis)) {
+          verdict = VerificationJournal.Verdict.EQUIVALENT;
+        } else {
+          wrongCount.incrementAndGet();
+          verdict = VerificationJournal.Verdict.WRONG;
+          description = WRONG_DESC;
+        }
+      } catch (SQLException e) {
+        if (budget.isExpired() || QueryWatchdog.isCancellation(e)) {
+          timeoutCount.incrementAndGet();
+          verdict = VerificationJournal.Verdict.TIMEOUT;
+          description = String.format(TIMEOUT_DESC, budget.getElapsedMillis(), budgetMillis,
+              isRetry ? " (retried)" : "");
+        } else {
           errorCount.incrementAndGet();
+          verdict = VerificationJournal.Verdict.ERROR;
+          description = String.format(ERROR_DESC, e);
+        }
+        error = e.toString();
+        if (originGroup != null) {
+          recoverGroup(originGroup);
+        }
+      }
+    } finally {
+      metrics.endExecution();
+    }
+    finishPair(pair, type, verdict, description, error, parseNanos, wrapNanos, System.nanoTime() - executeStart,
+        isRetry);
+  }
+
+  /**
+   * Compares a batch of pairs with a single statement per dataset, which returns the index of every pair
+   * whose results are different. This saves a round trip per pair when the queries are cheap. If the batch
+   * fails (e.g., a query of any pair has an error), nothing is reported, and the caller should verify the
+   * pairs on their own to find out which one fails.
+   *
+   * @param connections are the database connections owned by the current worker, one per dataset.
+   * @param originGroup is the group which the pairs are verified in (or null if none).
+   * @param group are the pairs of the group.
+   * @param queriesA are the wrapped first queries (or empty strings if the pairs should be skipped).
+   * @param queriesB are the wrapped second queries (or empty strings if the pairs should be skipped).
+   * @param wrapNanos are the time spent on wrapping the queries.
+   * @param start is the index of the first pair in the batch.
+   * @param end is the index after the last pair in the batch.
+   * @param budgetMillis is the time budget of each pair (or 0 for an unlimited budget).
+   * @param isRetry is whether the pairs have timed out before.
+   * @return whether the results of each pair are the same, or null if the batch is not verified.
+   * @throws InterruptedException when interrupted while waiting for the writer thread.
+   */
+  private boolean[] verifyBatch(final List<Connection> connections, final OriginGroup originGroup,
+                                final List<PendingPair> group, final String[] queriesA, final String[] queriesB,
+                                final long[] wrapNanos, final int start, final int end, final long budgetMillis,
+                                final boolean isRetry) throws InterruptedException {
+    if (options.batchSize <= 1 || end - start <= 1 || options.compareMode != VerifierOptions.CompareMode.EXCEPT) {
+      return null;
+    }
 
-          final String desc = String.format(ERROR_DESC, e);
-          printQueryPair(errWriter, entry.getKey(), desc, entry.getValue());
+    // The budget of the batch is the sum of the budgets of its pairs.
+    final long executeStart = System.nanoTime();
+    final boolean[] isSame = new boolean[end - start];
+    int numExecuted = 0;
+    metrics.startExecution();
+    try (QueryWatchdog.Budget budget = watchdog.start(budgetMillis * (end - start))) {
+      final List<String> parts = new ArrayList<>(end - start);
+      for (int i = start; i < end; i++) {
+        if (queriesA[i].isEmpty() || queriesB[i].isEmpty()) {
+          continue;
         }
+        final String queryA = originGroup == null ? queriesA[i] : originGroup.resolve(queriesA[i], budget);
+        final String queryB = originGroup == null ? queriesB[i] : originGroup.resolve(queriesB[i], budget);
+        parts.add(String.format(BATCH_PART_QUERY, i - start, queryA, queryB, queryB, queryA));
+        isSame[i - start] = true;
+        numExecuted++;
       }
 
-      // Prints the progress bar (if necessary).
-      final int currentCount = count.incrementAndGet();
-      if (currentCount % BATCH_SIZE == 0) {
-        System.out.printf("Progress: %d out of %d (%d wrong & %d error).\n",
-            currentCount, pairs.size(), wrongCount.get(), errorCount.get());
+      if (!parts.isEmpty()) {
+        final String query = String.join(BATCH_SEPARATOR, parts);
+        for (final int index: findBatchMismatches(connections, query, budget, budgetMillis * (end - start))) {
+          isSame[index] = false;
+        }
+      }
+    } catch (SQLException e) {
+      unbatchedCount.incrementAndGet();
+      if (originGroup != null) {
+        recoverGroup(originGroup);
       }
-    });
+      return null;
+    } finally {
+      metrics.endExecution();
+    }
 
-    // Closes the output streams.
-    outWriter.flush();
-    outWriter.close();
-    errWriter.flush();
-    errWriter.close();
+    // Reports each pair, sharing the execution time of the batch evenly.
+    final long executeNanos = numExecuted == 0 ? 0 : (System.nanoTime() - executeStart) / numExecuted;
+    batchedCount.addAndGet(numExecuted);
+    for (int i = start; i < end; i++) {
+      final PendingPair pending = group.get(i);
+      final VerificationJournal.Verdict verdict;
+      if (queriesA[i].isEmpty() || queriesB[i].isEmpty()) {
+        verdict = VerificationJournal.Verdict.SKIPPED;
+      } else if (isSame[i - start]) {
+        verdict = VerificationJournal.Verdict.EQUIVALENT;
+      } else {
+        wrongCount.incrementAndGet();
+        verdict = VerificationJournal.Verdict.WRONG;
+      }
+      finishPair(pending.pair, pending.type, verdict, verdict == VerificationJournal.Verdict.WRONG ? WRONG_DESC : null,
+          null, pending.parseNanos, wrapNanos[i], verdict == VerificationJournal.Verdict.SKIPPED ? -1 : executeNanos,
+          isRetry);
+    }
+    return isSame;
   }
 
   /**
-   * Reads input from a given file.
+   * Runs the statement of a batch on every dataset. Like a single pair, the datasets are checked in parallel,
+   * each with its own time budget. Once a dataset meets an error, the statements on the other datasets are
+   * cancelled, as the whole batch is verified pair by pair instead.
    *
-   * @param fileName is the path to the given file.
-   * @return all pairs of queries in that file.
-   * @throws IOException when there is any I/O error.
+   * @param connections are the database connections, one per dataset.
+   * @param query is the statement of the batch.
+   * @param budget is the time budget of the batch, used when there is only one dataset.
+   * @param budgetMillis is the time budget of the batch on each dataset.
+   * @return the indices of the pairs whose results are different on any dataset.
+   * @throws SQLException when there is any database error.
+   * @throws InterruptedException when interrupted while waiting for the datasets to be checked.
    */
-  private Map<QueryPair, String> readInput(String fileName) throws IOException {
-    // Creates the reader.
-    final FileReader fileReader = new FileReader(fileName);
-    final BufferedReader reader = new BufferedReader(fileReader);
-
-    // Reads line by line.
-    Map<QueryPair, String> result = new HashMap<>();
-    while (PAIR_DELIMITER.equals(reader.readLine())) {
-      String origin = readUntil(reader, INTERNAL_DELIMITER);
-      String first = readUntil(reader, INTERNAL_DELIMITER);
-      String second = readUntil(reader, INTERNAL_DELIMITER);
-      String description = readUntil(reader, PAIR_DELIMITER);
-
-      if (!IGNORE_RULES.contains(description)) {
-        QueryPair queryPair = new QueryPair(origin, first, second);
-        result.put(queryPair, description);
-      }
+  private List<Integer> findBatchMismatches(final List<Connection> connections, final String query,
+                                            final QueryWatchdog.Budget budget, final long budgetMillis)
+      throws SQLException, InterruptedException {
+    if (connections.size() == 1) {
+      return executeBatch(connections.get(0), query, budget);
+    }
 
-      if (result.size() >= MAX_QUERIES) {
-        break;
+    final CompletionService<List<Integer>> completionService = new ExecutorCompletionService<>(datasetExecutor);
+    final List<QueryWatchdog.Budget> budgets = new ArrayList<>(connections.size());
+    for (final Connection connection: connections) {
+      final QueryWatchdog.Budget datasetBudget = watchdog.start(budgetMillis);
+      budgets.add(datasetBudget);
+      completionService.submit(() -> executeBatch(connection, query, datasetBudget));
+    }
+
+    // Waits for all datasets, such that no statement is still running on the connections afterwards.
+    final List<Integer> result = new ArrayList<>();
+    SQLException exception = null;
+    try {
+      for (int i = 0; i < connections.size(); i++) {
+        try {
+          result.addAll(completionService.take().get());
+        } catch (ExecutionException e) {
+          if (exception == null) {
+            exception = e.getCause() instanceof SQLException
+                ? (SQLException) e.getCause() : new SQLException(e.getCause());
+            budgets.forEach(QueryWatchdog.Budget::cancel);
+          }
+        }
       }
+    } finally {
+      budgets.forEach(QueryWatchdog.Budget::close);
     }
 
-    // Closes the reader and returns the result.
-    fileReader.close();
-    reader.close();
+    if (exception != null) {
+      throw exception;
+    }
     return result;
   }
 
   /**
-   * Reads from an input reader until EOF or we meet a line which contains a given delimiter.
+   * Runs the statement of a batch on a dataset.
    *
-   * @param reader is the input reader.
-   * @param delimiter is the given  delimiter.
-   * @return the lines before the EOF or delimiter, concatenated together.
-   * @throws IOException when there is any I/O error.
+   * @param connection is the database connection.
+   * @param query is the statement of the batch.
+   * @param budget is the time budget of the batch.
+   * @return the indices of the pairs whose results are different.
+   * @throws SQLException when there is any database error.
+   */
+  private static List<Integer> executeBatch(final Connection connection, final String query,
+                                            final QueryWatchdog.Budget budget) throws SQLException {
+    final List<Integer> result = new ArrayList<>();
+    try (Statement statement = connection.createStatement()) {
+      budget.register(statement);
+      try (ResultSet rows = statement.executeQuery(query)) {
+        while (rows.next()) {
+          result.add(rows.getInt(1));
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Records the verdict of a pair into the metrics, the reports and the journal. A pair which times out for
+   * the first time is kept in the quarantine instead of the journal, if it should be retried.
+   *
+   * @param pair is the pair of queries.
+   * @param type is the type of the transformation.
+   * @param verdict is the verdict of the pair.
+   * @param description is the description of the verdict in the text logs.
+   * @param error is the error met by the pair (or null if none).
+   * @param parseNanos is the time spent on parsing the pair from the input.
+   * @param wrapNanos is the time spent on wrapping the queries.
+   * @param executeNanos is the time spent on executing the queries (or -1 if not executed).
+   * @param isRetry is whether the pair has timed out before.
+   * @throws InterruptedException when interrupted while waiting for the writer thread.
    */
-  private String readUntil(BufferedReader reader, String delimiter) throws IOException {
-    StringBuilder result = new StringBuilder();
+  private void finishPair(final QueryPair pair, final String type, final VerificationJournal.Verdict verdict,
+                          final String description, final String error, final long parseNanos,
+                          final long wrapNanos, final long executeNanos, final boolean isRetry)
+      throws InterruptedException {
+    metrics.record(type, parseNanos, wrapNanos, executeNanos);
 
-    // Reads line by line until we meet EOF or the delimiter.
-    String currentLine = reader.readLine();
-    while (currentLine != null && !currentLine.equals(delimiter)) {
-      result.append(currentLine).append(LINE_DELIMITER);
-      currentLine = reader.readLine();
+    // Hands the report over to the writer thread, so that the worker never waits for the disk. The writer
+    // records the verdict into the journal once the report is written.
+    final boolean isQuarantined = verdict == VerificationJournal.Verdict.TIMEOUT && !isRetry
+        && options.retryTimeoutMillis > 0;
+    if (isQuarantined) {
+      quarantine.add(new AbstractMap.SimpleImmutableEntry<>(pair, type));
     }
+    reportWriter.write(new ReportWriter.Report(pair, type, verdict, description, parseNanos, wrapNanos,
+        executeNanos, error, !isQuarantined));
+  }
 
-    // Returns the result.
-    return result.toString();
+  /**
+   * Starts a clean transaction for the remaining pairs of a group after a pair fails.
+   *
+   * @param originGroup is the group.
+   */
+  private void recoverGroup(final OriginGroup originGroup) {
+    try {
+      originGroup.recover();
+    } catch (SQLException e) {
+      System.err.println("Unable to roll back the transaction of a group: " + e);
+    }
   }
 
   /**
    * Wraps an input query to guarantee the ordering in its SELECT clause.
    *
    * @param input is the input query.
-   * @return the wrapped query.
+   * @param isTransformed is whether the query is the transformed one of the pair.
+   * @param fieldMatcher finds the fields referenced by the query.
+   * @return the wrapped query, or an empty string if it is not a root node.
    */
-  private String wrapQuery(String input, boolean isTransformed) {
-    String availableFields = FIELD_NAMES.stream()
-        .filter(field -> input.contains(field) || input.contains("\"" + field.substring(0, 1) + "\""))
-        .collect(Collectors.joining("\", \""));
+  static String wrapQuery(String input, boolean isTransformed, FieldMatcher fieldMatcher) {
+    final List<String> availableFields = fieldMatcher.match(input);
 
     // Only proceeds if this is potentially a root node (i.e., contains all tables and
     // best-match operator).
-    if (availableFields.length() != NUM_TABLES * 7 - 4) {
+    if (availableFields.size() != NUM_TABLES) {
       return "";
     } else if (isTransformed && !input.contains("PRECEDING")) {
       return "";
     }
-    return String.format(WRAP_QUERY, availableFields, input);
+    return String.format(WRAP_QUERY, String.join("\", \"", availableFields), input);
   }
 
   /**
-   * Checks whether the {@link ResultSet} of two queries are the same.
+   * Checks whether the {@link ResultSet} of two queries are the same on every dataset. The datasets are
+   * checked in parallel, each with its own time budget. Once a dataset shows a mismatch (or an error), the
+   * statements on the other datasets are cancelled. As a cancelled statement aborts the transaction of a group
+   * on some databases (e.g., PostgreSQL), the group is rolled back after such an early exit.
+   *
+   * @param connections are the database connections, one per dataset.
+   * @param originGroup is the group which the pair is verified in (or null if verified on its own).
+   * @param queryA is the first query.
+   * @param queryB is the second query.
+   * @param budget is the time budget of this pair, used when there is only one dataset.
+   * @param budgetMillis is the time budget of the pair on each dataset.
+   * @return true if their results are the same on every dataset.
+   * @throws SQLException when there is any database error.
+   * @throws InterruptedException when interrupted while waiting for the datasets to be checked.
+   */
+  private boolean compareOnDatasets(List<Connection> connections, OriginGroup originGroup, String queryA,
+                                    String queryB, QueryWatchdog.Budget budget, long budgetMillis)
+      throws SQLException, InterruptedException {
+    if (connections.size() == 1) {
+      final String dataset = options.datasets.isEmpty() ? null : options.datasets.get(0);
+      return compareQueryResult(connections.get(0), dataset, queryA, queryB, budget);
+    }
+
+    final CompletionService<Boolean> completionService = new ExecutorCompletionService<>(datasetExecutor);
+    final List<QueryWatchdog.Budget> budgets = new ArrayList<>(connections.size());
+    for (int i = 0; i < connections.size(); i++) {
+      final Connection connection = connections.get(i);
+      final String dataset = options.datasets.get(i);
+      final QueryWatchdog.Budget datasetBudget = watchdog.start(budgetMillis);
+      budgets.add(datasetBudget);
+      completionService.submit(() -> compareQueryResult(connection, dataset, queryA, queryB, datasetBudget));
+    }
+
+    // Waits for all datasets, such that no statement is still running on the connections afterwards.
+    boolean isSame = true;
+    boolean isCancelled = false;
+    SQLException exception = null;
+    try {
+      for (int i = 0; i < connections.size(); i++) {
+        try {
+          if (completionService.take().get() || !isSame || exception != null) {
+            continue;
+          }
+          isSame = false;
+        } catch (ExecutionException e) {
+          if (!isSame || exception != null) {
+            continue;
+          }
+          exception = e.getCause() instanceof SQLException
+              ? (SQLException) e.getCause() : new SQLException(e.getCause());
+        }
+        budgets.forEach(QueryWatchdog.Budget::cancel);
+        isCancelled = i < connections.size() - 1;
+      }
+    } finally {
+      budgets.forEach(QueryWatchdog.Budget::close);
+    }
+
+    // An error rolls back the group in the caller already.
+    if (isCancelled && exception == null && originGroup != null) {
+      recoverGroup(originGroup);
+    }
+
+    if (exception != null) {
+      throw exception;
+    }
+    return isSame;
+  }
+
+  /**
+   * Checks whether the {@link ResultSet} of two queries are the same, in the configured way.
+   *
+   * @param connection is the database connection.
+   * @param dataset is the schema of the dataset which the connection uses (or null for the default).
+   * @param queryA is the first query.
+   * @param queryB is the second query.
+   * @param budget is the time budget of this pair.
+   * @return true if their results are the same.
+   * @throws SQLException when there is any database error.
+   */
+  private boolean compareQueryResult(Connection connection, String dataset, String queryA, String queryB,
+                                     QueryWatchdog.Budget budget) throws SQLException {
+    switch (options.compareMode) {
+    case FINGERPRINT:
+      return compareFingerprint(connection, dataset, queryA, queryB, budget);
+    case CHECKSUM:
+      return compareChecksum(connection, queryA, queryB, budget);
+    case EXCEPT:
+    default:
+      return compareExcept(connection, queryA, queryB, budget);
+    }
+  }
+
+  /**
+   * Checks whether the {@link ResultSet} of two queries are the same as sets, using a meta query.
    *
    * @param connection is the database connection.
    * @param queryA is the first query.
    * @param queryB is the second query.
+   * @param budget is the time budget of this pair.
    * @return true if their results are the same.
    * @throws SQLException when there is any database error.
    */
-  private boolean compareQueryResult(Connection connection, String queryA, String queryB) throws SQLException {
+  private boolean compareExcept(Connection connection, String queryA, String queryB,
+                                QueryWatchdog.Budget budget) throws SQLException {
     // Constructs the meta query.
     String query = String.format(META_QUERY, queryA, queryB, queryB, queryA);
 
     // Executes the meta query.
-    Statement statement = connection.createStatement();
-    ResultSet result = statement.executeQuery(query);
-    boolean isEmpty = !result.next();
-    statement.close();
+    try (Statement statement = connection.createStatement()) {
+      budget.register(statement);
+      ResultSet result = statement.executeQuery(query);
 
-    // Checks whether the result is empty.
-    return isEmpty;
+      // Checks whether the result is empty.
+      return !result.next();
+    }
   }
 
   /**
-   * Prints out information about a pair of queries.
+   * Checks whether the {@link ResultSet} of two queries are the same as sets, in two phases. The checksums
+   * of both results are computed in the database first, and the pair is accepted if they are the same.
+   * Otherwise (e.g., the results only differ in duplicates), the pair is compared exactly by the meta query.
    *
-   * @param writer is the given output stream.
-   * @param pair is the pair of queries.
-   * @param description is the description for this pair.
-   * @param type is the type of the transformation.
+   * @param connection is the database connection.
+   * @param queryA is the first query.
+   * @param queryB is the second query.
+   * @param budget is the time budget of this pair.
+   * @return true if their results are the same.
+   * @throws SQLException when there is any database error.
    */
-  private void printQueryPair(Writer writer, QueryPair pair, String description, String type) {
-    final String str = PAIR_DELIMITER + "\n"
-        + description
-        + "\n\nOriginal query:\n\n"
-        + pair.origin + "\n"
-        + INTERNAL_DELIMITER + "\n"
-        + "First query:\n\n"
-        + pair.first + "\n"
-        + INTERNAL_DELIMITER + "\n"
-        + "Second query:\n\n"
-        + pair.second + "\n"
-        + INTERNAL_DELIMITER + "\n"
-        + type + "\n"
-        + PAIR_DELIMITER + "\n";
-
-    // Prints the output.
-    try {
-      writer.write(str);
-    } catch (IOException e) {
-      System.err.println(str);
+  private boolean compareChecksum(Connection connection, String queryA, String queryB,
+                                  QueryWatchdog.Budget budget) throws SQLException {
+    final ResultChecksum checksumA = ResultChecksum.compute(connection, queryA, options.backend, budget);
+    final ResultChecksum checksumB = ResultChecksum.compute(connection, queryB, options.backend, budget);
+    if (checksumA != null && checksumB != null && checksumA.sameAs(checksumB)) {
+      return true;
     }
+
+    escalatedCount.incrementAndGet();
+    return compareExcept(connection, queryA, queryB, budget);
+  }
+
+  /**
+   * Checks whether the {@link ResultSet} of two queries are the same as multi-sets, by running each query
+   * once and comparing the fingerprints of their results. Unlike the meta query, this also detects a
+   * different number of duplicate rows.
+   *
+   * @param connection is the database connection.
+   * @param dataset is the schema of the dataset which the connection uses (or null for the default).
+   * @param queryA is the first query.
+   * @param queryB is the second query.
+   * @param budget is the time budget of this pair.
+   * @return true if their results are the same.
+   * @throws SQLException when there is any database error.
+   */
+  private boolean compareFingerprint(Connection connection, String dataset, String queryA, String queryB,
+                                     QueryWatchdog.Budget budget) throws SQLException {
+    final ResultDigest digestA = computeDigest(connection, dataset, queryA, budget);
+    final ResultDigest digestB = computeDigest(connection, dataset, queryB, budget);
+    return digestA.sameAs(digestB);
+  }
+
+  /**
+   * Computes the fingerprint of the result of a query, reusing the cached one if the same query has
+   * been executed before.
+   *
+   * @param connection is the database connection.
+   * @param dataset is the schema of the dataset which the connection uses (or null for the default).
+   * @param query is the query to execute.
+   * @param budget is the time budget of the current pair.
+   * @return the fingerprint of its result.
+   * @throws SQLException when there is any database error.
+   */
+  private ResultDigest computeDigest(Connection connection, String dataset, String query,
+                                     QueryWatchdog.Budget budget) throws SQLException {
+    if (resultCache == null) {
+      return ResultDigest.compute(connection, query, options.fetchSize, options.exactRows, budget);
+    }
+
+    // The same query has different results on different datasets.
+    final String key = dataset == null ? query : "/* " + dataset + " */ " + query;
+    return resultCache.get(key, () -> ResultDigest.compute(connection, query, options.fetchSize,
+        options.exactRows, budget));
+  }
+
+  /**
+   * A pair of queries read from the input, waiting to be verified.
+   */
+  private static class PendingPair {
+    // The pair of queries.
+    private final QueryPair pair;
+    // The type of the transformation.
+    private final String type;
+    // The time spent on parsing the pair from the input.
+    private final long parseNanos;
+
+    private PendingPair(final QueryPair pair, final String type, final long parseNanos) {
+      this.pair = pair;
+      this.type = type;
+      this.parseNanos = parseNanos;
+    }
+  }
+
+  /**
+   * A source of pairs of queries, which returns null when there is no more pair.
+   */
+  private interface PairSource {
+    Map.Entry<QueryPair, String> next() throws IOException;
   }
 }
@@ -0,0 +1,280 @@
+package com.yunpengn.tools;
+
+import java.util.SplittableRandom;
+
+/**
+ * Samples values from a range of integers into a primitive array, following a given distribution. The cost
+ * of each sample is proportional to the number of values drawn rather than the size of the range.
+ */
+public class Sampler {
+  /**
+   * The distributions of the sampled values.
+   */
+  public enum Distribution {
+    // Distinct values, drawn uniformly.
+    DISTINCT,
+    // Values drawn uniformly with replacement.
+    UNIFORM,
+    // Values drawn with replacement, where the k-th smallest value has a frequency proportional to 1 / k^s.
+    ZIPF,
+    // Values drawn uniformly from a small pool of distinct values, so that each value repeats many times.
+    DUPLICATE
+  }
+
+  // The value which represents NULL in a sample.
+  public static final int NULL_VALUE = Integer.MIN_VALUE;
+
+  // The default exponent of the Zipf distribution.
+  private static final double DEFAULT_ZIPF_EXPONENT = 1.0;
+  // The average number of repetitions of each value in the duplicate-heavy distribution.
+  private static final int DUPLICATE_FACTOR = 10;
+  // The range is dense if it is at most this many times the number of values, in which case a partial
+  // Fisher-Yates shuffle is cheaper than Floyd's algorithm.
+  private static final int DENSE_FACTOR = 4;
+
+  // The distribution of the sampled values.
+  private final Distribution distribution;
+  // The probability of each value being replaced by NULL.
+  private final double nullRatio;
+  // The exponent of the Zipf distribution.
+  private final double zipfExponent;
+
+  public Sampler() {
+    this(Distribution.DISTINCT, 0);
+  }
+
+  public Sampler(final Distribution distribution, final double nullRatio) {
+    this(distribution, nullRatio, DEFAULT_ZIPF_EXPONENT);
+  }
+
+  public Sampler(final Distribution distribution, final double nullRatio, final double zipfExponent) {
+    if (nullRatio < 0 || nullRatio > 1) {
+      throw new IllegalArgumentException("The ratio of NULL values must be in [0, 1]: " + nullRatio);
+    }
+    this.distribution = distribution;
+    this.nullRatio = nullRatio;
+    this.zipfExponent = zipfExponent;
+  }
+
+  /**
+   * @return true if the sampled values are distinct and never NULL, such that they can be loaded into a key.
+   */
+  public boolean isKeyCompatible() {
+    return distribution == Distribution.DISTINCT && nullRatio == 0;
+  }
+
+  /**
+   * Samples values from a given range.
+   *
+   * @param random is the source of randomness.
+   * @param lower is the lower bound of the range (inclusive).
+   * @param upper is the upper bound of the range (inclusive).
+   * @param numRows is the number of values to sample.
+   * @return the sampled values in random order, where NULL is represented by {@link #NULL_VALUE}.
+   */
+  public int[] sample(final SplittableRandom random, final int lower, final int upper, final int numRows) {
+    final int[] values;
+    switch (distribution) {
+    case UNIFORM:
+      values = sampleUniform(random, lower, upper, numRows);
+      break;
+    case ZIPF:
+      values = sampleZipf(random, lower, upper, numRows);
+      break;
+    case DUPLICATE:
+      values = sampleDuplicate(random, lower, upper, numRows);
+      break;
+    case DISTINCT:
+    default:
+      values = sampleDistinct(random, lower, upper, numRows);
+    }
+
+    // Injects NULL values.
+    if (nullRatio > 0) {
+      for (int i = 0; i < values.length; i++) {
+        if (random.nextDouble() < nullRatio) {
+          values[i] = NULL_VALUE;
+        }
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Samples distinct values from a given range.
+   *
+   * @param random is the source of randomness.
+   * @param lower is the lower bound of the range (inclusive).
+   * @param upper is the upper bound of the range (inclusive).
+   * @param numRows is the number of values to sample.
+   * @return the sampled values in random order.
+   */
+  static int[] sampleDistinct(final SplittableRandom random, final int lower, final int upper, final int numRows) {
+    final long rangeSize = (long) upper - lower + 1;
+    if (numRows > rangeSize) {
+      throw new IllegalArgumentException(String.format("Cannot sample %d distinct values from [%d, %d].",
+          numRows, lower, upper));
+    }
+
+    // Partial Fisher-Yates shuffle over the whole range, when the range is small.
+    if (rangeSize <= (long) numRows * DENSE_FACTOR) {
+      final int[] range = new int[(int) rangeSize];
+      for (int i = 0; i < range.length; i++) {
+        range[i] = lower + i;
+      }
+      for (int i = 0; i < numRows; i++) {
+        swap(range, i, i + random.nextInt(range.length - i));
+      }
+      final int[] values = new int[numRows];
+      System.arraycopy(range, 0, values, 0, numRows);
+      return values;
+    }
+
+    // Floyd's algorithm otherwise, which only remembers the chosen offsets.
+    final int[] values = new int[numRows];
+    final LongHashSet chosen = new LongHashSet(numRows);
+    int count = 0;
+    for (long j = rangeSize - numRows; j < rangeSize; j++) {
+      long picked = random.nextLong(j + 1);
+      if (!chosen.add(picked)) {
+        picked = j;
+        chosen.add(j);
+      }
+      values[count++] = (int) (lower + picked);
+    }
+
+    // Floyd's algorithm does not produce a random order, so shuffles the result.
+    shuffle(random, values);
+    return values;
+  }
+
+  /**
+   * Samples values from a given range uniformly with replacement.
+   *
+   * @param random is the source of randomness.
+   * @param lower is the lower bound of the range (inclusive).
+   * @param upper is the upper bound of the range (inclusive).
+   * @param numRows is the number of values to sample.
+   * @return the sampled values.
+   */
+  static int[] sampleUniform(final SplittableRandom random, final int lower, final int upper, final int numRows) {
+    final int[] values = new int[numRows];
+    for (int i = 0; i < numRows; i++) {
+      values[i] = (int) random.nextLong(lower, (long) upper + 1);
+    }
+    return values;
+  }
+
+  /**
+   * Samples values from a given range following a Zipf distribution, with the rejection-inversion method
+   * of Hoermann and Derflinger. It takes constant memory regardless of the size of the range.
+   *
+   * @param random is the source of randomness.
+   * @param lower is the lower bound of the range (inclusive), which is the most frequent value.
+   * @param upper is the upper bound of the range (inclusive), which is the least frequent value.
+   * @param numRows is the number of values to sample.
+   * @return the sampled values.
+   */
+  int[] sampleZipf(final SplittableRandom random, final int lower, final int upper, final int numRows) {
+    final double numElements = (double) upper - lower + 1;
+    final double hIntegralX1 = hIntegral(1.5) - 1;
+    final double hIntegralNumElements = hIntegral(numElements + 0.5);
+    final double threshold = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+
+    final int[] values = new int[numRows];
+    for (int i = 0; i < numRows; i++) {
+      while (true) {
+        final double u = hIntegralNumElements + random.nextDouble() * (hIntegralX1 - hIntegralNumElements);
+        final double x = hIntegralInverse(u);
+        final long k = Math.max(1, Math.min((long) numElements, (long) (x + 0.5)));
+        if (k - x <= threshold || u >= hIntegral(k + 0.5) - h(k)) {
+          values[i] = (int) (lower + k - 1);
+          break;
+        }
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Samples values from a small pool of distinct values, such that each value repeats many times.
+   *
+   * @param random is the source of randomness.
+   * @param lower is the lower bound of the range (inclusive).
+   * @param upper is the upper bound of the range (inclusive).
+   * @param numRows is the number of values to sample.
+   * @return the sampled values.
+   */
+  static int[] sampleDuplicate(final SplittableRandom random, final int lower, final int upper, final int numRows) {
+    final long rangeSize = (long) upper - lower + 1;
+    final int poolSize = (int) Math.max(1, Math.min(rangeSize, numRows / DUPLICATE_FACTOR));
+    final int[] pool = sampleDistinct(random, lower, upper, poolSize);
+
+    final int[] values = new int[numRows];
+    for (int i = 0; i < numRows; i++) {
+      values[i] = pool[random.nextInt(poolSize)];
+    }
+    return values;
+  }
+
+  /**
+   * The unnormalized probability of the Zipf distribution, i.e., 1 / x^s.
+   */
+  private double h(final double x) {
+    return Math.exp(-zipfExponent * Math.log(x));
+  }
+
+  /**
+   * The integral of {@link #h(double)}, i.e., (x^(1 - s) - 1) / (1 - s), which is log(x) when s = 1.
+   */
+  private double hIntegral(final double x) {
+    final double logX = Math.log(x);
+    return helper2((1 - zipfExponent) * logX) * logX;
+  }
+
+  /**
+   * The inverse function of {@link #hIntegral(double)}.
+   */
+  private double hIntegralInverse(final double x) {
+    final double t = Math.max(-1, x * (1 - zipfExponent));
+    return Math.exp(helper1(t) * x);
+  }
+
+  /**
+   * Computes log(1 + x) / x in a numerically stable way.
+   */
+  private static double helper1(final double x) {
+    if (Math.abs(x) > 1e-8) {
+      return Math.log1p(x) / x;
+    }
+    return 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+  }
+
+  /**
+   * Computes (exp(x) - 1) / x in a numerically stable way.
+   */
+  private static double helper2(final double x) {
+    if (Math.abs(x) > 1e-8) {
+      return Math.expm1(x) / x;
+    }
+    return 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+  }
+
+  /**
+   * Shuffles an array in place.
+   *
+   * @param random is the source of randomness.
+   * @param values is the array.
+   */
+  private static void shuffle(final SplittableRandom random, final int[] values) {
+    for (int i = values.length - 1; i > 0; i--) {
+      swap(values, i, random.nextInt(i + 1));
+    }
+  }
+
+  private static void swap(final int[] values, final int i, final int j) {
+    final int temp = values[i];
+    values[i] = values[j];
+    values[j] = temp;
+  }
+}
@@ -0,0 +1,187 @@
+package com.yunpengn.tools;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies the pairs of an input file with several local worker processes, each of which runs the "check"
+ * command on its own shard (and optionally its own database, or its own server given by a JDBC url). When all
+ * workers finish, their logs and counters are merged into a single report.
+ */
+public class ShardCoordinator {
+  // The main class of the worker processes.
+  private static final String MAIN_CLASS = "com.yunpengn.Main";
+  // The interval in seconds between two progress reports.
+  private static final int PROGRESS_INTERVAL = 10;
+  // The suffix of the file which keeps the console output of a worker.
+  private static final String CONSOLE_SUFFIX = ".console.log";
+  // The counters reported by each worker.
+  private static final String[] COUNTERS = {"read", "duplicate", "resumed", "verified", "wrong", "error",
+      "timeout"};
+
+  // The number of shards (i.e., worker processes).
+  private final int numShards;
+  // The configuration, which may contain a database per shard in the form of "shard.<i>.db", or a JDBC url
+  // per shard in the form of "shard.<i>.url".
+  private final Properties props;
+  // The prefix of the paths to all output files.
+  private final String outputPrefix;
+  // The suffixes of the reports written by each worker.
+  private final List<String> reportSuffixes;
+
+  /**
+   * Creates a new {@link ShardCoordinator}.
+   *
+   * @param numShards is the number of worker processes.
+   * @param props are the properties in the configuration file.
+   */
+  public ShardCoordinator(final int numShards, final Properties props) {
+    this.numShards = numShards;
+    this.props = props;
+    final VerifierOptions options = new VerifierOptions(props);
+    this.outputPrefix = options.outputPrefix;
+    this.reportSuffixes = ReportWriter.suffixes(options);
+  }
+
+  /**
+   * Launches the workers, waits for all of them to finish and merges their reports.
+   *
+   * @param workerArgs are the arguments of the "check" command passed to every worker.
+   * @throws IOException when there is any I/O error.
+   * @throws InterruptedException when interrupted while waiting for the workers.
+   */
+  public void run(final List<String> workerArgs) throws IOException, InterruptedException {
+    // Removes the summaries of earlier runs, so that the progress is not mixed up with them.
+    for (int i = 0; i < numShards; i++) {
+      Files.deleteIfExists(shardPath(i, ResultVerifier.SUMMARY_SUFFIX));
+    }
+
+    final List<Process> workers = new ArrayList<>();
+    for (int i = 0; i < numShards; i++) {
+      workers.add(launchWorker(i, workerArgs));
+    }
+    System.out.printf("Launched %d workers.\n", numShards);
+
+    // Reports the progress of all workers until they finish.
+    final int[] exitCodes = new int[numShards];
+    for (int i = 0; i < numShards; i++) {
+      while (!workers.get(i).waitFor(PROGRESS_INTERVAL, TimeUnit.SECONDS)) {
+        printCounters("Progress", readCounters());
+      }
+      exitCodes[i] = workers.get(i).exitValue();
+    }
+    for (int i = 0; i < numShards; i++) {
+      if (exitCodes[i] != 0) {
+        System.err.printf("Worker %d exited with code %d, see %s.\n", i, exitCodes[i],
+            shardPath(i, CONSOLE_SUFFIX));
+      }
+    }
+
+    // Merges the logs of all shards.
+    for (final String suffix: reportSuffixes) {
+      mergeLogs(suffix);
+    }
+    final long[] counters = readCounters();
+    System.out.printf("We have discovered %d pairs of queries (%d duplicates & %d verified before skipped).\n",
+        counters[0], counters[1], counters[2]);
+    printCounters("Finished", counters);
+  }
+
+  /**
+   * Launches a worker process for a shard, whose console output is redirected into a file.
+   *
+   * @param shardIndex is the index of the shard.
+   * @param workerArgs are the arguments of the "check" command.
+   * @return the worker process.
+   * @throws IOException when the process cannot be started.
+   */
+  private Process launchWorker(final int shardIndex, final List<String> workerArgs) throws IOException {
+    final List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(MAIN_CLASS);
+    command.add("check");
+    command.addAll(workerArgs);
+    command.add("--shard=" + shardIndex + "/" + numShards);
+
+    final String database = props.getProperty("shard." + shardIndex + ".db");
+    if (database != null) {
+      command.add("--db=" + database);
+    }
+    final String url = props.getProperty("shard." + shardIndex + ".url");
+    if (url != null) {
+      command.add("--url=" + url);
+    }
+
+    final Path console = shardPath(shardIndex, CONSOLE_SUFFIX);
+    return new ProcessBuilder(command)
+        .redirectErrorStream(true)
+        .redirectOutput(console.toFile())
+        .start();
+  }
+
+  /**
+   * Reads the latest counters of all shards. A shard which has not reported yet is counted as zero.
+   *
+   * @return the sums of the counters, in the same order as {@link #COUNTERS}.
+   * @throws IOException when there is any I/O error.
+   */
+  long[] readCounters() throws IOException {
+    final long[] result = new long[COUNTERS.length];
+    for (int i = 0; i < numShards; i++) {
+      final Path path = shardPath(i, ResultVerifier.SUMMARY_SUFFIX);
+      if (!Files.exists(path)) {
+        continue;
+      }
+
+      final Properties summary = new Properties();
+      try (Reader reader = Files.newBufferedReader(path)) {
+        summary.load(reader);
+      }
+      for (int j = 0; j < COUNTERS.length; j++) {
+        result[j] += Long.parseLong(summary.getProperty(COUNTERS[j], "0"));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Concatenates a log of all shards into the log of the whole run. The concatenation of gzip files is a
+   * valid gzip file as well.
+   *
+   * @param suffix is the suffix of the log.
+   * @throws IOException when there is any I/O error.
+   */
+  void mergeLogs(final String suffix) throws IOException {
+    // A single shard writes into the log of the whole run already.
+    if (numShards == 1) {
+      return;
+    }
+    try (OutputStream output = Files.newOutputStream(VerifierOptions.outputPath(outputPrefix, 0, 1, suffix))) {
+      for (int i = 0; i < numShards; i++) {
+        final Path path = shardPath(i, suffix);
+        if (Files.exists(path)) {
+          Files.copy(path, output);
+        }
+      }
+    }
+  }
+
+  private Path shardPath(final int shardIndex, final String suffix) {
+    return VerifierOptions.outputPath(outputPrefix, shardIndex, numShards, suffix);
+  }
+
+  private static void printCounters(final String title, final long[] counters) {
+    System.out.printf("%s: %d verified (%d wrong & %d error & %d timeout).\n", title, counters[3], counters[4],
+        counters[5], counters[6]);
+  }
+}
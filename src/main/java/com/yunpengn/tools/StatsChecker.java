@@ -2,69 +2,378 @@ package com.yunpengn.tools;
 
 import org.apache.commons.io.input.ReversedLinesFileReader;
 
-import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Sums up the statistics at the end of all stats files in a folder. The summary of each file is kept in an
+ * index inside the folder, together with the size and the modification time of the file, so that a rerun
+ * only reads the files which have changed since. Files are read in parallel, and a file whose summary
+ * cannot be read is reported and skipped without affecting the others.
+ */
 public class StatsChecker {
   private static final String STATS_PREFIX = "stats";
   private static final Pattern ON_TOP_LINE_FORMAT = Pattern.compile("Out of (?<total>\\d+) queries, "
       + "there are (?<comp>\\d+) with compensation operators, and (?<top>\\d+) with compensation operators on top.");
   private static final Pattern FAILURE_LINE_FORMAT = Pattern.compile(
       "Out of (?<total>\\d+) queries, there are (?<failure>\\d+) failures.");
+  // The number of lines at the end of each file which contain its summary.
+  private static final int NUM_SUMMARY_LINES = 3;
 
-  public void run(final String folder) throws Exception {
-    // Gets all files.
-    final File[] files = new File(folder).listFiles();
-    assert files != null;
-
-    // Initializes all counters.
-    int onTopTotal = 0;
-    int onTopCompensation = 0;
-    int onTopOnTop = 0;
-    int failureTotal = 0;
-    int failureFail = 0;
-
-    // Checks each file.
-    for (final File file: files) {
-      if (!file.isFile() || !file.getName().contains(STATS_PREFIX)) {
-        continue;
+  // The name of the index of the summaries in the folder (which must not contain the prefix above).
+  private static final String INDEX_FILE_NAME = ".summary-index";
+  // The time to wait for the folder to be quiet before a refresh in the watch mode.
+  private static final long WATCH_QUIET_MILLIS = 1000;
+  // The longest time to delay a refresh in the watch mode, even if the folder keeps changing.
+  private static final long WATCH_MAX_DELAY_MILLIS = 10000;
+
+  // The number of threads which read the files in parallel.
+  private final int numThreads;
+  // The summary of each file which has been read, by the name of the file.
+  private final Map<String, FileSummary> summaries = new HashMap<>();
+
+  public StatsChecker() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a new {@link StatsChecker}.
+   *
+   * @param numThreads is the number of threads which read the files in parallel.
+   */
+  public StatsChecker(final int numThreads) {
+    this.numThreads = numThreads;
+  }
+
+  /**
+   * Prints the totals of all stats files in a folder once.
+   *
+   * @param folder is the path to the folder.
+   * @throws IOException when the folder cannot be read.
+   * @throws InterruptedException when interrupted while reading the files.
+   */
+  public void run(final String folder) throws IOException, InterruptedException {
+    final Path directory = Paths.get(folder);
+    loadIndex(directory);
+    if (refresh(directory) > 0) {
+      saveIndex(directory);
+    }
+    printTotals();
+  }
+
+  /**
+   * Keeps printing the totals of all stats files in a folder whenever they change, until interrupted. This
+   * is meant for a folder which is still being written into.
+   *
+   * @param folder is the path to the folder.
+   * @throws IOException when the folder cannot be read or watched.
+   * @throws InterruptedException when interrupted.
+   */
+  public void watch(final String folder) throws IOException, InterruptedException {
+    final Path directory = Paths.get(folder);
+    try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+      directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+          StandardWatchEventKinds.ENTRY_DELETE);
+      run(folder);
+
+      while (true) {
+        // Waits until the folder is quiet for a while, such that a burst of writes leads to one refresh.
+        WatchKey key = watcher.take();
+        final long start = System.currentTimeMillis();
+        boolean isChanged = false;
+        while (key != null) {
+          for (final WatchEvent<?> event: key.pollEvents()) {
+            // Ignores the updates of the index itself.
+            isChanged |= !INDEX_FILE_NAME.equals(String.valueOf(event.context()));
+          }
+          if (!key.reset()) {
+            System.err.printf("%s is no longer accessible.\n", directory);
+            return;
+          }
+          if (System.currentTimeMillis() - start >= WATCH_MAX_DELAY_MILLIS) {
+            break;
+          }
+          key = watcher.poll(WATCH_QUIET_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        if (isChanged && refresh(directory) > 0) {
+          saveIndex(directory);
+          printTotals();
+        }
       }
+    }
+  }
 
-      // Extracts the content.
-      final String[] lines = getLastLines(file, 3);
-      final Matcher failureMatcher = FAILURE_LINE_FORMAT.matcher(lines[1]);
-      if (!failureMatcher.find()) {
-        System.err.printf("%s does not match the given pattern %s.\n", lines[1], FAILURE_LINE_FORMAT);
+  /**
+   * Reads the summaries of the files which are new or have changed since they were last read, and forgets
+   * the files which no longer exist.
+   *
+   * @param directory is the path to the folder.
+   * @return the number of files which are read or forgotten.
+   * @throws IOException when the folder cannot be read.
+   * @throws InterruptedException when interrupted while reading the files.
+   */
+  private int refresh(final Path directory) throws IOException, InterruptedException {
+    // Finds the files to read. The attributes are taken before reading, so that a file modified during the
+    // read is read again next time.
+    final List<Path> paths = new ArrayList<>();
+    final List<Callable<FileSummary>> tasks = new ArrayList<>();
+    final Set<String> names = new HashSet<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+      for (final Path path: stream) {
+        final String name = path.getFileName().toString();
+        if (!name.contains(STATS_PREFIX)) {
+          continue;
+        }
+        final BasicFileAttributes attributes;
+        try {
+          attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+          // The file is deleted after being listed.
+          continue;
+        }
+        if (!attributes.isRegularFile()) {
+          continue;
+        }
+
+        names.add(name);
+        final FileSummary cached = summaries.get(name);
+        final long modified = attributes.lastModifiedTime().toMillis();
+        if (cached == null || cached.size != attributes.size() || cached.modified != modified) {
+          paths.add(path);
+          tasks.add(() -> readSummary(path, attributes.size(), modified));
+        }
+      }
+    }
+    final int numRemoved = summaries.size() - (int) summaries.keySet().stream().filter(names::contains).count();
+    summaries.keySet().retainAll(names);
+
+    // Reads the files in parallel.
+    final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, tasks.size())));
+    try {
+      final List<Future<FileSummary>> results = executor.invokeAll(tasks);
+      for (int i = 0; i < results.size(); i++) {
+        final String name = paths.get(i).getFileName().toString();
+        try {
+          final FileSummary summary = results.get(i).get();
+          summaries.put(name, summary);
+          if (summary.error != null) {
+            System.err.printf("Skipped %s: %s\n", paths.get(i), summary.error);
+          }
+        } catch (ExecutionException e) {
+          summaries.remove(name);
+          System.err.printf("Unable to read %s: %s.\n", paths.get(i), e.getCause());
+        }
       }
-      final Matcher onTopMatcher = ON_TOP_LINE_FORMAT.matcher(lines[2]);
-      if (!onTopMatcher.find()) {
-        System.err.printf("%s does not match the given pattern %s.\n", lines[2], ON_TOP_LINE_FORMAT);
+    } finally {
+      executor.shutdownNow();
+    }
+    return tasks.size() + numRemoved;
+  }
+
+  /**
+   * Reads the summary at the end of a file. A file which cannot be read, or whose last lines do not match
+   * the patterns (e.g., as it is still being written), has an invalid summary.
+   *
+   * @param path is the path to the file.
+   * @param size is the size of the file.
+   * @param modified is the modification time of the file.
+   * @return the summary of the file.
+   */
+  private static FileSummary readSummary(final Path path, final long size, final long modified) {
+    final String[] lines = new String[NUM_SUMMARY_LINES];
+    try (ReversedLinesFileReader reader = new ReversedLinesFileReader(path.toFile(), StandardCharsets.UTF_8)) {
+      // The reader must not be used after reaching the start of the file.
+      for (int i = 0; i < NUM_SUMMARY_LINES && (i == 0 || lines[i - 1] != null); i++) {
+        lines[i] = reader.readLine();
       }
+    } catch (IOException e) {
+      return FileSummary.invalid(size, modified, e.toString());
+    }
+
+    if (lines[NUM_SUMMARY_LINES - 1] == null) {
+      return FileSummary.invalid(size, modified, String.format("there are less than %d lines.", NUM_SUMMARY_LINES));
+    }
+
+    // Extracts the content.
+    final Matcher failureMatcher = FAILURE_LINE_FORMAT.matcher(String.valueOf(lines[1]));
+    if (!failureMatcher.find()) {
+      return FileSummary.invalid(size, modified,
+          String.format("%s does not match the given pattern %s.", lines[1], FAILURE_LINE_FORMAT));
+    }
+    final Matcher onTopMatcher = ON_TOP_LINE_FORMAT.matcher(String.valueOf(lines[2]));
+    if (!onTopMatcher.find()) {
+      return FileSummary.invalid(size, modified,
+          String.format("%s does not match the given pattern %s.", lines[2], ON_TOP_LINE_FORMAT));
+    }
+    return new FileSummary(size, modified, new long[] {
+        Long.parseLong(onTopMatcher.group("total")),
+        Long.parseLong(onTopMatcher.group("comp")),
+        Long.parseLong(onTopMatcher.group("top")),
+        Long.parseLong(failureMatcher.group("total")),
+        Long.parseLong(failureMatcher.group("failure"))}, null);
+  }
 
-      // Updates the counters.
-      onTopTotal += Integer.parseInt(onTopMatcher.group("total"));
-      onTopCompensation += Integer.parseInt(onTopMatcher.group("comp"));
-      onTopOnTop += Integer.parseInt(onTopMatcher.group("top"));
-      failureTotal += Integer.parseInt(failureMatcher.group("total"));
-      failureFail += Integer.parseInt(failureMatcher.group("failure"));
+  /**
+   * Prints the sums of the summaries of all files.
+   */
+  private void printTotals() {
+    final long[] totals = new long[FileSummary.NUM_COUNTERS];
+    int numInvalid = 0;
+    for (final FileSummary summary: summaries.values()) {
+      if (summary.counters == null) {
+        numInvalid++;
+        continue;
+      }
+      for (int i = 0; i < totals.length; i++) {
+        totals[i] += summary.counters[i];
+      }
     }
 
     // Prints out the result.
     System.out.printf("Out of %d queries, there are %d with compensation operators, "
-        + "and %d with compensation operators on top.\n", onTopTotal, onTopCompensation, onTopOnTop);
-    System.out.printf("Out of %d queries, there are %d failures.\n", failureTotal, failureFail);
+        + "and %d with compensation operators on top.\n", totals[0], totals[1], totals[2]);
+    System.out.printf("Out of %d queries, there are %d failures.\n", totals[3], totals[4]);
+    System.out.printf("(%d files summed up, %d files skipped.)\n", summaries.size() - numInvalid, numInvalid);
+  }
+
+  /**
+   * Loads the summaries kept by an earlier run. A missing or malformed index is simply ignored.
+   *
+   * @param directory is the path to the folder.
+   */
+  private void loadIndex(final Path directory) {
+    final Path path = directory.resolve(INDEX_FILE_NAME);
+    if (!Files.exists(path)) {
+      return;
+    }
+
+    final Properties index = new Properties();
+    try (Reader reader = Files.newBufferedReader(path)) {
+      index.load(reader);
+    } catch (IOException | IllegalArgumentException e) {
+      System.err.printf("Ignored the index %s: %s.\n", path, e);
+      return;
+    }
+    for (final String name: index.stringPropertyNames()) {
+      final FileSummary summary = FileSummary.parse(index.getProperty(name));
+      if (summary != null) {
+        summaries.put(name, summary);
+      }
+    }
   }
 
-  private String[] getLastLines(final File file, final int n) throws Exception {
-    final ReversedLinesFileReader reader = new ReversedLinesFileReader(file, StandardCharsets.UTF_8);
+  /**
+   * Saves the summaries into the index, replacing the index atomically.
+   *
+   * @param directory is the path to the folder.
+   */
+  private void saveIndex(final Path directory) {
+    final Properties index = new Properties();
+    for (final Map.Entry<String, FileSummary> entry: summaries.entrySet()) {
+      index.setProperty(entry.getKey(), entry.getValue().toString());
+    }
 
-    final String[] result = new String[n];
-    for (int i = 0; i < n; i++) {
-      final String line = reader.readLine();
-      result[i] = line;
+    final Path path = directory.resolve(INDEX_FILE_NAME);
+    final Path tempPath = directory.resolve(INDEX_FILE_NAME + ".tmp");
+    try {
+      try (Writer writer = Files.newBufferedWriter(tempPath)) {
+        index.store(writer, "The summaries of the stats files: size,modified[,counters]");
+      }
+      Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      System.err.printf("Unable to save the index %s: %s.\n", path, e);
+    }
+  }
+
+  /**
+   * The summary of a stats file, together with the size and the modification time it was read at.
+   */
+  private static class FileSummary {
+    // The number of counters in a summary.
+    private static final int NUM_COUNTERS = 5;
+
+    // The size and the modification time of the file.
+    private final long size;
+    private final long modified;
+    // The counters in the file: total, compensation and on-top queries, then total queries and failures
+    // (null if the summary is invalid).
+    private final long[] counters;
+    // Why the summary is invalid (only known right after the file is read).
+    private final String error;
+
+    private FileSummary(final long size, final long modified, final long[] counters, final String error) {
+      this.size = size;
+      this.modified = modified;
+      this.counters = counters;
+      this.error = error;
+    }
+
+    private static FileSummary invalid(final long size, final long modified, final String error) {
+      return new FileSummary(size, modified, null, error);
+    }
+
+    /**
+     * Parses a summary in the index.
+     *
+     * @param value is the value in the index.
+     * @return the summary, or null if it is malformed.
+     */
+    private static FileSummary parse(final String value) {
+      final String[] parts = value.split(",");
+      if (parts.length != 2 && parts.length != 2 + NUM_COUNTERS) {
+        return null;
+      }
+      try {
+        long[] counters = null;
+        if (parts.length > 2) {
+          counters = new long[NUM_COUNTERS];
+          for (int i = 0; i < NUM_COUNTERS; i++) {
+            counters[i] = Long.parseLong(parts[i + 2]);
+          }
+        }
+        return new FileSummary(Long.parseLong(parts[0]), Long.parseLong(parts[1]), counters, null);
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+
+    @Override public String toString() {
+      final StringBuilder builder = new StringBuilder().append(size).append(',').append(modified);
+      if (counters != null) {
+        for (final long counter: counters) {
+          builder.append(',').append(counter);
+        }
+      }
+      return builder.toString();
     }
-    return result;
   }
 }
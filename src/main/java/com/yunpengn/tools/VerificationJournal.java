@@ -0,0 +1,143 @@
+package com.yunpengn.tools;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An append-only journal of the verdicts of all verified pairs, so that an interrupted run can be resumed
+ * without verifying the same pairs again. Each line contains the content hash of a pair (in hex) and its
+ * verdict. The journal is synced to the disk in batches, by the writer of the reports (see {@link ReportWriter})
+ * which forces the reports onto the disk first. It is guarded by a lock rather than a monitor, such that a
+ * virtual thread waiting for the sync does not pin its carrier thread.
+ */
+public class VerificationJournal implements AutoCloseable {
+  /**
+   * The verdicts of a pair.
+   */
+  public enum Verdict {
+    // The two queries return the same result.
+    EQUIVALENT,
+    // The two queries return different results.
+    WRONG,
+    // Meet an exception when executing the queries.
+    ERROR,
+    // The queries used up their time budget.
+    TIMEOUT,
+    // The queries are not root nodes, thus not executed.
+    SKIPPED
+  }
+
+  // The separator between the hash and the verdict.
+  private static final char SEPARATOR = ' ';
+
+  // The underlying file.
+  private final FileOutputStream output;
+  private final BufferedWriter writer;
+  // The number of records after which the journal is synced to the disk.
+  private final int syncInterval;
+  // The number of records since the last sync.
+  private int pendingCount = 0;
+  // Guards the file and the counter above.
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /**
+   * Opens a journal for writing.
+   *
+   * @param path is the path to the journal.
+   * @param append is whether to keep the existing records (when resuming a run).
+   * @param syncInterval is the number of records after which the journal is synced to the disk.
+   * @throws IOException when there is any I/O error.
+   */
+  public VerificationJournal(final Path path, final boolean append, final int syncInterval) throws IOException {
+    this.output = new FileOutputStream(path.toFile(), append);
+    this.writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.US_ASCII));
+    this.syncInterval = Math.max(1, syncInterval);
+  }
+
+  /**
+   * Reads the hashes of all pairs recorded in a journal. A partial line at the end (e.g., when the previous
+   * run was killed in the middle of a write) is ignored.
+   *
+   * @param path is the path to the journal.
+   * @return the hashes of all recorded pairs, or an empty set if the journal does not exist.
+   * @throws IOException when there is any I/O error.
+   */
+  public static LongHashSet readFinishedPairs(final Path path) throws IOException {
+    final LongHashSet result = new LongHashSet();
+    if (!Files.exists(path)) {
+      return result;
+    }
+
+    try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.US_ASCII)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        final int index = line.indexOf(SEPARATOR);
+        if (index <= 0) {
+          continue;
+        }
+        try {
+          Verdict.valueOf(line.substring(index + 1));
+          result.add(Long.parseUnsignedLong(line.substring(0, index), 16));
+        } catch (IllegalArgumentException e) {
+          System.err.println("Ignore an invalid line in the journal: " + line);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Records the verdict of a pair, which is only synced to the disk by {@link #sync()}.
+   *
+   * @param pair is the pair of queries.
+   * @param verdict is its verdict.
+   * @return true if the journal should be synced, as the number of records since the last sync reaches the
+   *         sync interval.
+   * @throws IOException when there is any I/O error.
+   */
+  public boolean record(final QueryPair pair, final Verdict verdict) throws IOException {
+    lock.lock();
+    try {
+      writer.write(Long.toHexString(pair.contentHash()));
+      writer.write(SEPARATOR);
+      writer.write(verdict.name());
+      writer.write('\n');
+      return ++pendingCount >= syncInterval;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Flushes all records and forces them onto the disk.
+   *
+   * @throws IOException when there is any I/O error.
+   */
+  public void sync() throws IOException {
+    lock.lock();
+    try {
+      writer.flush();
+      output.getChannel().force(false);
+      pendingCount = 0;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override public void close() throws IOException {
+    lock.lock();
+    try {
+      sync();
+      writer.close();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package com.yunpengn.tools;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects the latencies of a verification run, broken down by phase and by rewrite rule, and dumps their
+ * percentiles into a JSON file.
+ */
+public class VerifierMetrics {
+  // The percentiles to report, and their names.
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+  private static final String[] PERCENTILE_NAMES = {"p50Ms", "p90Ms", "p99Ms", "p999Ms"};
+  private static final double NANOS_PER_MILLI = 1e6;
+
+  // The latencies of each phase of a pair.
+  private final LatencyHistogram parseLatency = new LatencyHistogram();
+  private final LatencyHistogram wrapLatency = new LatencyHistogram();
+  private final LatencyHistogram executeLatency = new LatencyHistogram();
+  private final LatencyHistogram totalLatency = new LatencyHistogram();
+  // The total latencies of the pairs of each rule.
+  private final Map<String, LatencyHistogram> ruleLatencies = new ConcurrentHashMap<>();
+
+  // The number of pairs being executed at the moment, and its peak.
+  private final AtomicInteger inFlight = new AtomicInteger(0);
+  private final AtomicInteger maxInFlight = new AtomicInteger(0);
+
+  /**
+   * Marks the start of the execution of a pair.
+   */
+  public void startExecution() {
+    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+  }
+
+  /**
+   * Marks the end of the execution of a pair.
+   */
+  public void endExecution() {
+    inFlight.decrementAndGet();
+  }
+
+  /**
+   * Records the latencies of a pair.
+   *
+   * @param rule is the name of the rewrite rule which produced the pair.
+   * @param parseNanos is the time spent on parsing the pair from the input.
+   * @param wrapNanos is the time spent on wrapping the queries.
+   * @param executeNanos is the time spent on executing the queries, or a negative value if not executed.
+   */
+  public void record(final String rule, final long parseNanos, final long wrapNanos, final long executeNanos) {
+    parseLatency.record(parseNanos);
+    wrapLatency.record(wrapNanos);
+    if (executeNanos >= 0) {
+      executeLatency.record(executeNanos);
+    }
+
+    final long total = parseNanos + wrapNanos + Math.max(0, executeNanos);
+    totalLatency.record(total);
+    ruleLatencies.computeIfAbsent(rule.trim(), key -> new LatencyHistogram()).record(total);
+  }
+
+  /**
+   * Writes the summary of all metrics into a JSON file. The file is replaced atomically, so that readers
+   * never see a partial summary.
+   *
+   * @param path is the path to the file.
+   * @throws IOException when there is any I/O error.
+   */
+  public void dump(final Path path) throws IOException {
+    final Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+    try (Writer writer = Files.newBufferedWriter(tempPath)) {
+      writer.write(toJson());
+    }
+    Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * @return the summary of all metrics in JSON, where the rules are sorted by their total time.
+   */
+  public String toJson() {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("{\n  \"timestamp\": ").append(Json.quote(ZonedDateTime.now().toString()))
+        .append(",\n  \"inFlight\": ").append(inFlight.get())
+        .append(",\n  \"maxInFlight\": ").append(maxInFlight.get())
+        .append(",\n  \"phases\": {\n");
+    appendHistogram(builder, "parse", parseLatency, true);
+    appendHistogram(builder, "wrap", wrapLatency, true);
+    appendHistogram(builder, "execute", executeLatency, true);
+    appendHistogram(builder, "total", totalLatency, false);
+    builder.append("  },\n  \"rules\": {\n");
+
+    final List<Map.Entry<String, LatencyHistogram>> rules = new ArrayList<>(ruleLatencies.entrySet());
+    rules.sort((x, y) -> Long.compare(y.getValue().getSum(), x.getValue().getSum()));
+    for (int i = 0; i < rules.size(); i++) {
+      appendHistogram(builder, rules.get(i).getKey(), rules.get(i).getValue(), i < rules.size() - 1);
+    }
+    return builder.append("  }\n}\n").toString();
+  }
+
+  /**
+   * Appends the summary of a histogram as a JSON field.
+   *
+   * @param builder is the output.
+   * @param name is the name of the field.
+   * @param histogram is the histogram.
+   * @param hasNext is whether there is another field after this one.
+   */
+  private static void appendHistogram(final StringBuilder builder, final String name,
+                                      final LatencyHistogram histogram, final boolean hasNext) {
+    final long count = histogram.getCount();
+    builder.append("    ").append(Json.quote(name)).append(": {\"count\": ").append(count)
+        .append(", \"totalMs\": ").append(toMillis(histogram.getSum()))
+        .append(", \"meanMs\": ").append(toMillis(count == 0 ? 0 : histogram.getSum() / count));
+    for (int i = 0; i < PERCENTILES.length; i++) {
+      builder.append(", \"").append(PERCENTILE_NAMES[i]).append("\": ")
+          .append(toMillis(histogram.getPercentile(PERCENTILES[i])));
+    }
+    builder.append(", \"maxMs\": ").append(toMillis(histogram.getMax())).append(hasNext ? "},\n" : "}\n");
+  }
+
+  private static String toMillis(final long nanos) {
+    return String.format(Locale.ROOT, "%.3f", nanos / NANOS_PER_MILLI);
+  }
+}
@@ -0,0 +1,149 @@
+package com.yunpengn.tools;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The options to tune a verification run, read from the configuration file.
+ */
+public class VerifierOptions {
+  /**
+   * The ways to compare the results of a pair of queries.
+   */
+  public enum CompareMode {
+    // Runs a single meta query which computes the set difference in both directions.
+    EXCEPT,
+    // Runs each query once and compares the order-insensitive fingerprints of their results.
+    FINGERPRINT,
+    // Compares a checksum of each result computed in the database first, and only runs the meta query
+    // of EXCEPT when the checksums are different.
+    CHECKSUM
+  }
+
+  // The database engine.
+  public final Backend backend;
+  // The schemas of the datasets which each pair is verified on (empty for the default schema only).
+  public final List<String> datasets;
+  // The number of pairs verified in parallel, each on its own connection.
+  public final int concurrency;
+  // Whether to skip pairs which have appeared earlier in the input.
+  public final boolean deduplicate;
+  // How to compare the results of a pair of queries.
+  public final CompareMode compareMode;
+  // The number of rows fetched in each round trip when computing a fingerprint.
+  public final int fetchSize;
+  // The maximum number of rows for which results are compared exactly rather than by their hashes.
+  public final int exactRows;
+  // The maximum number of fingerprints kept in the result cache (0 disables the cache).
+  public final int cacheSize;
+  // The interval in seconds between two dumps of the metrics (0 only dumps them at the end).
+  public final int metricsInterval;
+  // The time budget of each pair in milliseconds (0 for an unlimited budget).
+  public final long timeoutMillis;
+  // The time budget in milliseconds when retrying pairs which time out (0 to not retry them).
+  public final long retryTimeoutMillis;
+  // Whether to resume a previous run, skipping the pairs recorded in its journal.
+  public final boolean resume;
+  // The number of verdicts after which the journal is synced to the disk.
+  public final int journalSyncInterval;
+  // Whether to verify each group of pairs on its own virtual thread (Java 21 or later).
+  public final boolean virtualThreads;
+  // The maximum number of consecutive pairs with the same original query verified together in one
+  // transaction (1 verifies each pair on its own).
+  public final int groupSize;
+  // The maximum number of pairs compared by a single statement in the "except" mode (1 disables batching).
+  public final int batchSize;
+  // The number of threads which parse a memory-mapped input in parallel (0 reads it as a stream instead).
+  public final int parseThreads;
+  // The shard verified by this run, and the total number of shards. Pairs are partitioned by content hash.
+  public final int shardIndex;
+  public final int shardCount;
+  // The prefix of the paths to all output files.
+  public final String outputPrefix;
+  // Whether to write a JSONL report of all pairs, and whether to compress all reports with gzip.
+  public final boolean reportJsonl;
+  public final boolean reportGzip;
+
+  /**
+   * Creates a new {@link VerifierOptions}.
+   *
+   * @param props are the properties in the configuration file.
+   */
+  public VerifierOptions(final Properties props) {
+    this.backend = Backend.of(props);
+    final String datasetList = props.getProperty("datasets", "").trim();
+    this.datasets = datasetList.isEmpty()
+        ? Collections.emptyList() : Arrays.asList(datasetList.split("\\s*,\\s*"));
+    this.concurrency = Integer.parseInt(props.getProperty("concurrency",
+        String.valueOf(Runtime.getRuntime().availableProcessors())));
+    this.deduplicate = Boolean.parseBoolean(props.getProperty("dedup", "true"));
+    this.compareMode = CompareMode.valueOf(props.getProperty("compare", "except").toUpperCase());
+    this.fetchSize = Integer.parseInt(props.getProperty("fingerprint.fetchSize", "10000"));
+    this.exactRows = Integer.parseInt(props.getProperty("fingerprint.exactRows", "1000"));
+    this.cacheSize = Integer.parseInt(props.getProperty("cache.size", "10000"));
+    this.metricsInterval = Integer.parseInt(props.getProperty("metrics.interval", "60"));
+    this.timeoutMillis = Long.parseLong(props.getProperty("timeout.seconds", "0")) * 1000;
+    this.retryTimeoutMillis = Long.parseLong(props.getProperty("timeout.retrySeconds", "0")) * 1000;
+    this.resume = Boolean.parseBoolean(props.getProperty("resume", "false"));
+    this.journalSyncInterval = Integer.parseInt(props.getProperty("journal.syncInterval", "1000"));
+    this.virtualThreads = "virtual".equalsIgnoreCase(props.getProperty("executor", "platform"));
+    this.groupSize = Math.max(1, Integer.parseInt(props.getProperty("group.size", "1")));
+    this.batchSize = Math.max(1, Integer.parseInt(props.getProperty("batch.size", "1")));
+    this.parseThreads = Integer.parseInt(props.getProperty("parse.threads", "1"));
+    this.shardIndex = Integer.parseInt(props.getProperty("shard.index", "0"));
+    this.shardCount = Integer.parseInt(props.getProperty("shard.count", "1"));
+    this.outputPrefix = props.getProperty("output.prefix", "out");
+    this.reportJsonl = Boolean.parseBoolean(props.getProperty("report.jsonl", "true"));
+    this.reportGzip = Boolean.parseBoolean(props.getProperty("report.gzip", "false"));
+    if (shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount) {
+      throw new IllegalArgumentException("Invalid shard: " + shardIndex + "/" + shardCount);
+    }
+  }
+
+  /**
+   * @return the maximum number of pairs handed to a worker at once, i.e., a group if grouping is enabled, or
+   *         otherwise a batch.
+   */
+  public int taskSize() {
+    return groupSize > 1 ? groupSize : batchSize;
+  }
+
+  /**
+   * Checks whether a pair belongs to the shard verified by this run.
+   *
+   * @param contentHash is the content hash of the pair.
+   * @return true if the pair should be verified by this run.
+   */
+  public boolean ownsPair(final long contentHash) {
+    return Math.floorMod(contentHash, shardCount) == shardIndex;
+  }
+
+  /**
+   * Gets the path to an output file of this run. Each shard writes into its own files, so that several
+   * shards can run in the same directory.
+   *
+   * @param suffix is the suffix of the file (e.g., ".log").
+   * @return the path to the file.
+   */
+  public Path outputPath(final String suffix) {
+    return outputPath(outputPrefix, shardIndex, shardCount, suffix);
+  }
+
+  /**
+   * Gets the path to an output file of a shard.
+   *
+   * @param outputPrefix is the prefix of the paths to all output files.
+   * @param shardIndex is the index of the shard.
+   * @param shardCount is the total number of shards.
+   * @param suffix is the suffix of the file (e.g., ".log").
+   * @return the path to the file.
+   */
+  public static Path outputPath(final String outputPrefix, final int shardIndex, final int shardCount,
+                                final String suffix) {
+    return Paths.get(outputPrefix + (shardCount == 1 ? "" : ".shard-" + shardIndex) + suffix);
+  }
+}
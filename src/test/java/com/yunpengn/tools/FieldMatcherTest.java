@@ -0,0 +1,133 @@
+package com.yunpengn.tools;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Tests the detection of the fields referenced by a query, which decides how a query is wrapped.
+ */
+class FieldMatcherTest {
+  // Fields whose names overlap: "aID" is a suffix of "laID", and "ab" starts with "a".
+  private static final Map<String, String> OVERLAPPING_FIELDS = new LinkedHashMap<>();
+
+  static {
+    OVERLAPPING_FIELDS.put("aID", "a");
+    OVERLAPPING_FIELDS.put("laID", "la");
+    OVERLAPPING_FIELDS.put("abID", "ab");
+    OVERLAPPING_FIELDS.put("ID", "i");
+  }
+
+  @Test
+  void match_overlappingNames_sameAsContains() {
+    final FieldMatcher matcher = new FieldMatcher(OVERLAPPING_FIELDS);
+    for (final String query: Arrays.asList("", "laID", "SELECT \"abID\" FROM \"ab\"", "SELECT * FROM \"la\"",
+        "SELECT * FROM \"ab\" WHERE x = \"a\"", "\"i\"", "lalaID", "\"\"la\"\"", "aI D")) {
+      assertEquals(containsMatch(OVERLAPPING_FIELDS, query), matcher.match(query), query);
+    }
+    assertEquals(Arrays.asList("aID", "laID", "ID"), matcher.match("laID"));
+    assertEquals(Collections.singletonList("abID"), matcher.match("SELECT * FROM \"ab\""));
+  }
+
+  @Test
+  void match_randomQueries_sameAsContains() {
+    final Map<String, String> defaultFields = new LinkedHashMap<>();
+    for (char table = 'a'; table <= 'l'; table++) {
+      defaultFields.put(table + "ID", String.valueOf(table));
+    }
+
+    // Random queries over a small alphabet, such that names and partial names appear often.
+    final SplittableRandom random = new SplittableRandom(42);
+    final String alphabet = "abcdlI D\"";
+    for (final Map<String, String> fieldTables: Arrays.asList(defaultFields, OVERLAPPING_FIELDS)) {
+      final FieldMatcher matcher = fieldTables == defaultFields ? FieldMatcher.DEFAULT
+          : new FieldMatcher(fieldTables);
+      for (int i = 0; i < 2000; i++) {
+        final StringBuilder query = new StringBuilder();
+        final int length = random.nextInt(30);
+        for (int j = 0; j < length; j++) {
+          query.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        assertEquals(containsMatch(fieldTables, query.toString()), matcher.match(query.toString()),
+            query.toString());
+      }
+    }
+  }
+
+  @Test
+  void match_quotedTable_matchesItsField() {
+    assertEquals(Arrays.asList("aID", "cID"), FieldMatcher.DEFAULT.match("SELECT * FROM \"c\", \"a\""));
+    // An unquoted table name is not a reference.
+    assertEquals(Collections.emptyList(), FieldMatcher.DEFAULT.match("SELECT * FROM c"));
+  }
+
+  @Test
+  void wrapQuery_rootNode_requiresAllTables() {
+    final String query = "SELECT * FROM \"e\", \"a\", \"b\" JOIN \"c\" ON \"cID\" = \"dID\"";
+    assertEquals("SELECT \"aID\", \"bID\", \"cID\", \"dID\", \"eID\" from (" + query + ") AS \"z\"",
+        ResultVerifier.wrapQuery(query, false, FieldMatcher.DEFAULT));
+    assertEquals("", ResultVerifier.wrapQuery("SELECT * FROM \"a\", \"b\", \"c\", \"d\"", false,
+        FieldMatcher.DEFAULT));
+    assertEquals("", ResultVerifier.wrapQuery(query + ", \"f\"", false, FieldMatcher.DEFAULT));
+  }
+
+  @Test
+  void wrapQuery_transformedQuery_requiresPreceding() {
+    final String query = "SELECT * FROM \"a\", \"b\", \"c\", \"d\", \"e\"";
+    assertEquals("", ResultVerifier.wrapQuery(query, true, FieldMatcher.DEFAULT));
+    assertEquals("SELECT \"aID\", \"bID\", \"cID\", \"dID\", \"eID\" from (" + query + " PRECEDING) AS \"z\"",
+        ResultVerifier.wrapQuery(query + " PRECEDING", true, FieldMatcher.DEFAULT));
+  }
+
+  @Test
+  void loadSchema_emptyDatabase_fallsBackToDefault() throws SQLException, InterruptedException {
+    final Properties props = new Properties();
+    props.setProperty("h2.location", "mem:fields");
+    final ConnectionPool connectionPool = new ConnectionPool(Backend.H2.createUrl(props),
+        Backend.H2.connectionProperties(props), 1);
+    try {
+      assertSame(FieldMatcher.DEFAULT, ResultVerifier.loadSchema(connectionPool));
+
+      final Connection connection = connectionPool.borrow();
+      try (Statement statement = connection.createStatement()) {
+        statement.execute("CREATE TABLE \"x\" (\"xID\" integer, \"xName\" varchar(10))");
+      } finally {
+        connectionPool.release(connection);
+      }
+      final FieldMatcher matcher = ResultVerifier.loadSchema(connectionPool);
+      assertNotSame(FieldMatcher.DEFAULT, matcher);
+      assertEquals(2, matcher.size());
+      assertEquals(Arrays.asList("xID", "xName"), matcher.match("SELECT * FROM \"x\""));
+    } finally {
+      connectionPool.close();
+    }
+  }
+
+  /**
+   * Finds the referenced fields in the same way as before the automaton, by a substring search per field.
+   *
+   * @param fieldTables maps the name of each field to the name of its table.
+   * @param query is the query.
+   * @return the referenced fields, in the order of the schema.
+   */
+  private static List<String> containsMatch(final Map<String, String> fieldTables, final String query) {
+    return fieldTables.entrySet().stream()
+        .filter(entry -> query.contains(entry.getKey()) || query.contains("\"" + entry.getValue() + "\""))
+        .map(Map.Entry::getKey)
+        .collect(Collectors.toList());
+  }
+}
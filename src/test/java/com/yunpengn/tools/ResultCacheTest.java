@@ -0,0 +1,74 @@
+package com.yunpengn.tools;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the sharing of fingerprints between pairs through the result cache.
+ */
+class ResultCacheTest {
+  private static final String QUERY = "SELECT \"aID\" FROM \"a\"";
+
+  @Test
+  void get_sameQuery_cachesWithoutExactRows() throws SQLException {
+    final ResultCache cache = new ResultCache(10);
+    final ResultDigest digest = new ResultDigest(1, 2, 3, Collections.singletonMap("x", 1));
+    // The same hashes with different exact rows, which only the exact comparison tells apart.
+    final ResultDigest other = new ResultDigest(1, 2, 3, Collections.singletonMap("y", 1));
+
+    assertSame(digest, cache.get(QUERY, () -> digest));
+    final ResultDigest cached = cache.get("  " + QUERY + ";", () -> {
+      throw new AssertionError("The query should not run again.");
+    });
+    assertFalse(digest.sameAs(other));
+    assertTrue(cached.sameAs(other));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  @Test
+  void get_ownerCancelled_waiterRunsQueryItself() throws Exception {
+    final ResultCache cache = new ResultCache(10);
+    final ResultDigest digest = new ResultDigest(1, 2, 3, null);
+    final CountDownLatch ownerStarted = new CountDownLatch(1);
+    final CountDownLatch ownerRelease = new CountDownLatch(1);
+
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      final Future<ResultDigest> owner = executor.submit(() -> cache.get(QUERY, () -> {
+        ownerStarted.countDown();
+        try {
+          ownerRelease.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        throw new SQLTimeoutException("Cancelled by the budget of the owner.");
+      }));
+      ownerStarted.await();
+      final Future<ResultDigest> waiter = executor.submit(() -> cache.get(QUERY, () -> digest));
+      ownerRelease.countDown();
+
+      // The cancellation of the owner is not shared with the waiter.
+      assertSame(digest, waiter.get());
+      final ExecutionException failure = assertThrows(ExecutionException.class, owner::get);
+      assertTrue(QueryWatchdog.isCancellation((SQLException) failure.getCause()));
+      assertEquals(2, cache.getMissCount());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,629 @@
+package com.yunpengn.tools;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the verification end to end, on data loaded into an embedded H2 database.
+ */
+class ResultVerifierTest {
+  // The number of rows in each table.
+  private static final int NUM_ROWS = 50;
+
+  private static final String SAME_QUERY_A = "SELECT \"aID\" FROM \"a\"";
+  private static final String SAME_QUERY_B = "SELECT \"aID\" FROM \"a\" WHERE \"aID\" IS NOT NULL";
+  private static final String WRONG_QUERY_A = "SELECT \"bID\" FROM \"b\"";
+  private static final String WRONG_QUERY_B = "SELECT \"bID\" FROM \"b\" WHERE \"bID\" < 0";
+  private static final String ERROR_QUERY = "SELECT * FROM \"missing\"";
+  // The two queries return the same set of rows, but a different number of duplicates.
+  private static final String DUPLICATE_QUERY_A = "SELECT 1 FROM \"a\"";
+  private static final String DUPLICATE_QUERY_B = "SELECT DISTINCT 1 FROM \"a\"";
+  // More queries on the same table as the first pair, which form a group with it.
+  private static final String WRONG_QUERY_C = "SELECT \"aID\" FROM \"a\" WHERE \"aID\" < 0";
+  private static final String SAME_QUERY_C = "SELECT DISTINCT \"aID\" FROM \"a\"";
+  private static final String SAME_QUERY_D = "SELECT \"aID\" FROM \"a\" UNION SELECT \"aID\" FROM \"a\"";
+  // A query on the same table as the first query, which takes far longer than a second to run.
+  private static final String SLOW_QUERY = "SELECT \"x1\".\"aID\" FROM \"a\" \"x1\", \"a\" \"x2\", \"a\" \"x3\", "
+      + "\"a\" \"x4\", \"a\" \"x5\" WHERE \"x1\".\"aID\" + \"x2\".\"aID\" + \"x3\".\"aID\" + \"x4\".\"aID\" "
+      + "+ \"x5\".\"aID\" < 0";
+  private static final String IGNORED_RULE = "org.apache.calcite.rel.rules.custom.BestMatchNullifyPullUpRule";
+
+  // The datasets without and with NULL values.
+  private static final String PLAIN_DATASET = "plain";
+  private static final String NULL_DATASET = "nulls";
+
+  private static ConnectionPool connectionPool;
+  private static ConnectionPool plainConnectionPool;
+  private static ConnectionPool nullConnectionPool;
+
+  @TempDir
+  Path tempDir;
+
+  @BeforeAll
+  static void setUp() throws SQLException, InterruptedException {
+    final Properties props = new Properties();
+    props.setProperty("h2.location", "mem:verifier");
+    connectionPool = new ConnectionPool(Backend.H2.createUrl(props), Backend.H2.connectionProperties(props), 2);
+
+    final DataLoader loader = new DataLoader(connectionPool, true, 2);
+    loader.load(0, 1000, NUM_ROWS);
+
+    // Loads two more datasets into their own schemas.
+    final DataLoader plainLoader = new DataLoader(connectionPool, true, 2, false, 100,
+        new Sampler(Sampler.Distribution.UNIFORM, 0), PLAIN_DATASET, new SplittableRandom(1));
+    plainLoader.load(0, 1000, NUM_ROWS);
+    final DataLoader nullLoader = new DataLoader(connectionPool, true, 2, false, 100,
+        new Sampler(Sampler.Distribution.UNIFORM, 0.5), NULL_DATASET, new SplittableRandom(2));
+    nullLoader.load(0, 1000, NUM_ROWS);
+    plainConnectionPool = new ConnectionPool(Backend.H2.createUrl(props), Backend.H2.connectionProperties(props), 2,
+        PLAIN_DATASET);
+    nullConnectionPool = new ConnectionPool(Backend.H2.createUrl(props), Backend.H2.connectionProperties(props), 2,
+        NULL_DATASET);
+  }
+
+  @AfterAll
+  static void tearDown() throws SQLException {
+    connectionPool.close();
+    plainConnectionPool.close();
+    nullConnectionPool.close();
+  }
+
+  @Test
+  void load_embeddedDatabase_fillsAllTables() throws SQLException, InterruptedException {
+    final Connection connection = connectionPool.borrow();
+    try (Statement statement = connection.createStatement();
+         ResultSet result = statement.executeQuery("SELECT COUNT(DISTINCT \"bID\") FROM \"b\"")) {
+      assertTrue(result.next());
+      assertEquals(NUM_ROWS, result.getInt(1));
+    } finally {
+      connectionPool.release(connection);
+    }
+  }
+
+  @Test
+  void load_tableWithKey_rejectsDuplicatesAndNulls() throws SQLException, InterruptedException {
+    final String keyedSchema = "keyed";
+    final Connection connection = connectionPool.borrow();
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("CREATE SCHEMA \"" + keyedSchema + "\"");
+      statement.execute("CREATE TABLE \"" + keyedSchema + "\".\"a\" (\"aID\" integer PRIMARY KEY)");
+      statement.execute("INSERT INTO \"" + keyedSchema + "\".\"a\" VALUES (1)");
+    } finally {
+      connectionPool.release(connection);
+    }
+
+    // The table is left untouched, instead of being truncated before a constraint violation.
+    for (final Sampler sampler: new Sampler[] {new Sampler(Sampler.Distribution.DUPLICATE, 0),
+        new Sampler(Sampler.Distribution.DISTINCT, 0.5)}) {
+      final DataLoader loader = new DataLoader(connectionPool, true, 1, false, 100, sampler, keyedSchema,
+          new SplittableRandom(3));
+      assertThrows(IllegalArgumentException.class, () -> loader.load(0, 1000, NUM_ROWS));
+      assertEquals(1, count(connectionPool, "\"" + keyedSchema + "\".\"a\""));
+    }
+
+    // Distinct values without NULLs fit the key.
+    new DataLoader(connectionPool, true, 1, false, 100, new Sampler(), keyedSchema, new SplittableRandom(3))
+        .load(0, 1000, NUM_ROWS);
+    assertEquals(NUM_ROWS, count(connectionPool, "\"" + keyedSchema + "\".\"a\""));
+  }
+
+  @Test
+  void verify_exceptMode_classifiesPairs() throws IOException, InterruptedException {
+    final ResultVerifier verifier = verify("except", "1");
+
+    assertEquals(4, verifier.getVerifiedCount());
+    assertEquals(1, verifier.getWrongCount());
+    assertEquals(1, verifier.getErrorCount());
+    assertEquals(0, verifier.getTimeoutCount());
+
+    final String wrongLog = read("out.log");
+    assertTrue(wrongLog.contains(WRONG_QUERY_B));
+    assertFalse(wrongLog.contains(SAME_QUERY_B));
+    assertTrue(read("out.err.log").contains(ERROR_QUERY));
+
+    // The JSONL report has one line per verified pair.
+    final List<String> reports = Files.readAllLines(tempDir.resolve("out.jsonl"), StandardCharsets.UTF_8);
+    assertEquals(4, reports.size());
+    assertEquals(1, reports.stream().filter(line -> line.contains("\"verdict\": \"WRONG\"")).count());
+    assertTrue(reports.stream().anyMatch(line -> line.contains("\"rule\": \"ErrorRule\"")
+        && line.contains("\"verdict\": \"ERROR\"")));
+  }
+
+  @Test
+  void verify_fingerprintMode_detectsDuplicates() throws IOException, InterruptedException {
+    final ResultVerifier verifier = verify("fingerprint", "1");
+
+    assertEquals(4, verifier.getVerifiedCount());
+    assertEquals(2, verifier.getWrongCount());
+    assertEquals(1, verifier.getErrorCount());
+    assertTrue(read("out.log").contains(DUPLICATE_QUERY_B));
+  }
+
+  @Test
+  void verify_checksumMode_sameAsExceptMode() throws IOException, InterruptedException {
+    final ResultVerifier verifier = verify("checksum", "1");
+
+    assertEquals(4, verifier.getVerifiedCount());
+    assertEquals(1, verifier.getWrongCount());
+    assertEquals(1, verifier.getErrorCount());
+    assertTrue(read("out.log").contains(WRONG_QUERY_B));
+  }
+
+  @Test
+  void verify_multipleDatasets_stopsAtMismatch() throws IOException, InterruptedException {
+    // The pair of IS NOT NULL is only wrong on the dataset with NULL values.
+    final ResultVerifier plainVerifier = verify("except", "1", PLAIN_DATASET);
+    assertEquals(1, plainVerifier.getWrongCount());
+
+    final ResultVerifier verifier = verify("except", "1", PLAIN_DATASET + "," + NULL_DATASET);
+    assertEquals(4, verifier.getVerifiedCount());
+    assertEquals(2, verifier.getWrongCount());
+    assertEquals(1, verifier.getErrorCount());
+    assertTrue(read("out.log").contains(SAME_QUERY_B));
+  }
+
+  @Test
+  void verify_streamingReader_sameAsMappedScanner() throws IOException, InterruptedException {
+    final ResultVerifier verifier = verify("except", "0");
+
+    assertEquals(4, verifier.getVerifiedCount());
+    assertEquals(1, verifier.getWrongCount());
+    assertEquals(1, verifier.getErrorCount());
+  }
+
+  @Test
+  void verify_crlfInput_sameAsStreamingReader() throws IOException, InterruptedException {
+    final String input = defaultInput().replace("\n", "\r\n");
+    final Path inputPath = tempDir.resolve("crlf.txt");
+    Files.write(inputPath, input.getBytes(StandardCharsets.UTF_8));
+
+    // Both readers return the same pairs, with LF line endings.
+    final List<Map.Entry<QueryPair, String>> expected = new ArrayList<>();
+    try (QueryPairReader reader = new QueryPairReader(Files.newBufferedReader(inputPath), Collections.emptySet())) {
+      Map.Entry<QueryPair, String> entry;
+      while ((entry = reader.next()) != null) {
+        expected.add(entry);
+      }
+    }
+    final List<Map.Entry<QueryPair, String>> actual = new ArrayList<>();
+    try (MappedPairScanner scanner = new MappedPairScanner(inputPath, Collections.emptySet())) {
+      for (final MappedPairScanner.Split split: scanner.split(4)) {
+        Map.Entry<QueryPair, String> entry;
+        while ((entry = split.next()) != null) {
+          actual.add(entry);
+        }
+      }
+    }
+    assertEquals(6, expected.size());
+    assertEquals(expected, actual);
+
+    for (final String parseThreads: new String[] {"0", "4"}) {
+      final ResultVerifier verifier = verify(input, createProperties("except", parseThreads, ""));
+      assertEquals(4, verifier.getVerifiedCount());
+      assertEquals(1, verifier.getWrongCount());
+      assertEquals(1, verifier.getErrorCount());
+    }
+  }
+
+  @Test
+  void verify_compressedInput_sameAsPlainInput() throws IOException, InterruptedException {
+    final Properties props = createProperties("except", "4", "");
+    props.setProperty("report.gzip", "true");
+    final ResultVerifier verifier = verify(defaultInput(), props, "input.txt.gz");
+
+    assertEquals(4, verifier.getVerifiedCount());
+    assertEquals(1, verifier.getWrongCount());
+    assertEquals(1, verifier.getErrorCount());
+    try (InputStream input = CompressedFiles.openInput(tempDir.resolve("out.log.gz"))) {
+      assertTrue(new String(IOUtils.toByteArray(input), StandardCharsets.UTF_8).contains(WRONG_QUERY_B));
+    }
+  }
+
+  @Test
+  void verify_groupedByOrigin_sameAsSeparately() throws IOException, InterruptedException {
+    // All pairs share the first query, which is materialized once. The error in the middle rolls back the
+    // transaction of the group, and the pair after it still runs.
+    final String input = pair(SAME_QUERY_A, SAME_QUERY_B, "SameRule")
+        + pair(SAME_QUERY_A, WRONG_QUERY_C, "WrongRule")
+        + pair(SAME_QUERY_A, ERROR_QUERY, "ErrorRule")
+        + pair(SAME_QUERY_A, SAME_QUERY_C, "DistinctRule");
+    for (final String groupSize: new String[] {"1", "4"}) {
+      for (final String compareMode: new String[] {"except", "checksum"}) {
+        final Properties props = createProperties(compareMode, "1", "");
+        props.setProperty("group.size", groupSize);
+        final ResultVerifier verifier = verify(input, props);
+
+        assertEquals(4, verifier.getVerifiedCount());
+        assertEquals(1, verifier.getWrongCount());
+        assertEquals(1, verifier.getErrorCount());
+        assertTrue(read("out.log").contains(WRONG_QUERY_C));
+      }
+    }
+  }
+
+  @Test
+  void verify_mismatchInGroup_remainingPairsStillVerified() throws IOException, InterruptedException {
+    // The pair in the middle is only wrong on the dataset with NULL values, which cancels the statements on
+    // the other dataset and rolls back the group. The pairs after it still run in a clean transaction.
+    final String input = pair(SAME_QUERY_A, SAME_QUERY_C, "DistinctRule")
+        + pair(SAME_QUERY_A, SAME_QUERY_B, "NotNullRule")
+        + pair(SAME_QUERY_A, WRONG_QUERY_C, "WrongRule")
+        + pair(SAME_QUERY_A, SAME_QUERY_D, "UnionRule");
+    for (final String groupSize: new String[] {"1", "4"}) {
+      final Properties props = createProperties("except", "1", PLAIN_DATASET + "," + NULL_DATASET);
+      props.setProperty("group.size", groupSize);
+      final ResultVerifier verifier = verify(input, props);
+
+      assertEquals(4, verifier.getVerifiedCount());
+      assertEquals(2, verifier.getWrongCount());
+      assertEquals(0, verifier.getErrorCount());
+      assertEquals(0, verifier.getTimeoutCount());
+      assertTrue(read("out.log").contains(SAME_QUERY_B));
+      assertFalse(read("out.log").contains(SAME_QUERY_D));
+    }
+  }
+
+  @Test
+  void verify_virtualThreads_sameAsPlatformThreads() throws IOException, InterruptedException {
+    // This only runs on virtual threads on Java 21 or later. On an older JVM (such as Java 17), it covers the
+    // fallback to the platform threads rather than the virtual threads themselves.
+    for (final String groupSize: new String[] {"1", "4"}) {
+      final Properties props = createProperties("except", "1", PLAIN_DATASET + "," + NULL_DATASET);
+      props.setProperty("executor", "virtual");
+      props.setProperty("group.size", groupSize);
+      final ResultVerifier verifier = verify(defaultInput(), props);
+
+      assertEquals(4, verifier.getVerifiedCount());
+      assertEquals(2, verifier.getWrongCount());
+      assertEquals(1, verifier.getErrorCount());
+      assertTrue(read("out.log").contains(SAME_QUERY_B));
+    }
+  }
+
+  @Test
+  void verify_batches_sameAsSinglePairs() throws IOException, InterruptedException {
+    final Properties props = createProperties("except", "1", "");
+    props.setProperty("batch.size", "8");
+    final ResultVerifier verifier = verify(pair(SAME_QUERY_A, SAME_QUERY_B, "SameRule")
+        + pair(WRONG_QUERY_A, WRONG_QUERY_B, "WrongRule")
+        + pair(DUPLICATE_QUERY_A, DUPLICATE_QUERY_B, "DuplicateRule")
+        + pair(SAME_QUERY_A, WRONG_QUERY_C, "WrongRule"), props);
+    assertEquals(4, verifier.getVerifiedCount());
+    assertEquals(2, verifier.getWrongCount());
+    assertTrue(read("out.log").contains(WRONG_QUERY_B));
+    assertTrue(read("out.log").contains(WRONG_QUERY_C));
+
+    // The batch with an error is verified pair by pair instead.
+    final ResultVerifier errorVerifier = verify(defaultInput(), props);
+    assertEquals(4, errorVerifier.getVerifiedCount());
+    assertEquals(1, errorVerifier.getWrongCount());
+    assertEquals(1, errorVerifier.getErrorCount());
+
+    // The batch runs on all datasets at once, where the pair of IS NOT NULL is only wrong on one of them.
+    final Properties datasetProps = createProperties("except", "1", PLAIN_DATASET + "," + NULL_DATASET);
+    datasetProps.setProperty("batch.size", "8");
+    final ResultVerifier datasetVerifier = verify(pair(SAME_QUERY_A, SAME_QUERY_B, "NotNullRule")
+        + pair(SAME_QUERY_A, SAME_QUERY_C, "DistinctRule")
+        + pair(WRONG_QUERY_A, WRONG_QUERY_B, "WrongRule"), datasetProps);
+    assertEquals(3, datasetVerifier.getVerifiedCount());
+    assertEquals(2, datasetVerifier.getWrongCount());
+    assertEquals(0, datasetVerifier.getErrorCount());
+    assertTrue(read("out.log").contains(SAME_QUERY_B));
+    assertFalse(read("out.log").contains(SAME_QUERY_C));
+  }
+
+  @Test
+  void verify_pairOverBudget_loggedAsTimeout() throws IOException, InterruptedException {
+    final Properties props = createProperties("except", "1", "");
+    props.setProperty("timeout.seconds", "1");
+    props.setProperty("timeout.retrySeconds", "1");
+    final ResultVerifier verifier = verify(pair(SAME_QUERY_A, SLOW_QUERY, "SlowRule")
+        + pair(WRONG_QUERY_A, WRONG_QUERY_B, "WrongRule"), props);
+
+    // The slow pair times out twice, while the other pair is not affected by it.
+    assertEquals(2, verifier.getVerifiedCount());
+    assertEquals(1, verifier.getWrongCount());
+    assertEquals(0, verifier.getErrorCount());
+    assertEquals(2, verifier.getTimeoutCount());
+    final String timeoutLog = read("out.timeout.log");
+    assertTrue(timeoutLog.contains(SLOW_QUERY));
+    assertTrue(timeoutLog.contains("(retried)"));
+    assertFalse(timeoutLog.contains(WRONG_QUERY_B));
+  }
+
+  @Test
+  void verify_resumedRun_skipsJournaledPairs() throws IOException, InterruptedException {
+    final Properties props = createProperties("except", "1", "");
+    final ResultVerifier firstVerifier = verify(pair(SAME_QUERY_A, SAME_QUERY_B, "SameRule")
+        + pair(WRONG_QUERY_A, WRONG_QUERY_B, "WrongRule"), props);
+    assertEquals(2, firstVerifier.getVerifiedCount());
+
+    // Only the pairs which are not in the journal of the first run are verified again.
+    props.setProperty("resume", "true");
+    final ResultVerifier verifier = verify(defaultInput(), props);
+    assertEquals(2, verifier.getVerifiedCount());
+    assertEquals(0, verifier.getWrongCount());
+    assertEquals(1, verifier.getErrorCount());
+    assertEquals("2", readSummary().getProperty("resumed"));
+
+    // The logs of the first run are appended to rather than replaced.
+    assertTrue(read("out.log").contains(WRONG_QUERY_B));
+    assertEquals(4, Files.readAllLines(tempDir.resolve("out.jsonl"), StandardCharsets.UTF_8).size());
+  }
+
+  @Test
+  void verify_shards_partitionInput() throws IOException, InterruptedException {
+    // Each content hash is owned by exactly one shard.
+    final int numShards = 3;
+    final List<VerifierOptions> shardOptions = new ArrayList<>();
+    for (int i = 0; i < numShards; i++) {
+      final Properties props = createProperties("except", "1", "");
+      props.setProperty("shard.index", String.valueOf(i));
+      props.setProperty("shard.count", String.valueOf(numShards));
+      shardOptions.add(new VerifierOptions(props));
+    }
+    final SplittableRandom random = new SplittableRandom(7);
+    for (int i = 0; i < 1000; i++) {
+      final long contentHash = random.nextLong();
+      assertEquals(1, shardOptions.stream().filter(options -> options.ownsPair(contentHash)).count());
+    }
+
+    // The shards together verify the same pairs as a single run, and their logs are merged into one.
+    int verifiedCount = 0;
+    for (int i = 0; i < numShards; i++) {
+      final Properties props = createProperties("except", "1", "");
+      props.setProperty("shard.index", String.valueOf(i));
+      props.setProperty("shard.count", String.valueOf(numShards));
+      verifiedCount += verify(defaultInput(), props).getVerifiedCount();
+    }
+    assertEquals(4, verifiedCount);
+
+    final ShardCoordinator coordinator = new ShardCoordinator(numShards, createProperties("except", "1", ""));
+    final long[] counters = coordinator.readCounters();
+    assertEquals(5, counters[0]);
+    assertEquals(4, counters[3]);
+    assertEquals(1, counters[4]);
+    assertEquals(1, counters[5]);
+    coordinator.mergeLogs(ReportWriter.OUT_SUFFIX);
+    coordinator.mergeLogs(ReportWriter.ERR_SUFFIX);
+    assertTrue(read("out.log").contains(WRONG_QUERY_B));
+    assertTrue(read("out.err.log").contains(ERROR_QUERY));
+  }
+
+  @Test
+  void reportWriter_closeWhenInterrupted_writesPendingReports()throws IOException, InterruptedException {
+    final ReportWriter writer = new ReportWriter(new VerifierOptions(createProperties("except", "1", "")));
+    final QueryPair pair = new QueryPair(SAME_QUERY_A, SAME_QUERY_A, WRONG_QUERY_C);
+    writer.write(new ReportWriter.Report(pair, "WrongRule", VerificationJournal.Verdict.WRONG, "Wrong.", 0, 0, 0,
+        null));
+
+    Thread.currentThread().interrupt();
+    writer.close();
+    assertTrue(Thread.interrupted());
+    assertTrue(read("out.log").contains(WRONG_QUERY_C));
+    assertEquals(1, Files.readAllLines(tempDir.resolve("out.jsonl"), StandardCharsets.UTF_8).size());
+  }
+
+  @Test
+  void reportWriter_finalVerdicts_recordedIntoJournalAfterReports() throws IOException, InterruptedException {
+    final Path journalPath = tempDir.resolve("out.journal");
+    final QueryPair wrongPair = new QueryPair(SAME_QUERY_A, SAME_QUERY_A, WRONG_QUERY_C);
+    final QueryPair timeoutPair = new QueryPair(SAME_QUERY_A, SAME_QUERY_A, SLOW_QUERY);
+    try (VerificationJournal journal = new VerificationJournal(journalPath, false, 1000)) {
+      final ReportWriter writer = new ReportWriter(new VerifierOptions(createProperties("except", "1", "")), journal);
+      writer.write(new ReportWriter.Report(wrongPair, "WrongRule", VerificationJournal.Verdict.WRONG, "Wrong.", 0,
+          0, 0, null));
+      // A pair kept for a retry is reported, but not recorded as finished.
+      writer.write(new ReportWriter.Report(timeoutPair, "SlowRule", VerificationJournal.Verdict.TIMEOUT,
+          "Timeout.", 0, 0, 0, null, false));
+      writer.close();
+
+      // The journal is synced when the writer closes, well before the sync interval.
+      final LongHashSet finishedPairs = VerificationJournal.readFinishedPairs(journalPath);
+      assertEquals(1, finishedPairs.size());
+      assertTrue(finishedPairs.contains(wrongPair.contentHash()));
+      assertTrue(read("out.log").contains(WRONG_QUERY_C));
+      assertTrue(read("out.timeout.log").contains(SLOW_QUERY));
+    }
+  }
+
+  @Test
+  void verify_compiledInput_sameAsPlainInput() throws IOException, InterruptedException {
+    final Path inputPath = tempDir.resolve("input.txt");
+    Files.write(inputPath, defaultInput().getBytes(StandardCharsets.UTF_8));
+    final Path storePath = tempDir.resolve("input" + PairStore.EXTENSION);
+    assertEquals(6, PairStore.compile(inputPath, storePath));
+
+    // Each pair can be read directly by its index.
+    final PairStore store = new PairStore(storePath, Collections.emptySet());
+    assertEquals(6, store.size());
+    assertEquals(WRONG_QUERY_B + "\n", store.get(1).getKey().second);
+    assertEquals("ErrorRule\n", store.get(2).getValue());
+    assertEquals(store.get(0).getKey(), store.get(4).getKey());
+
+    // Each distinct string is stored once, even when it appeared long before, so repeating the input only adds
+    // the records of its pairs.
+    final Path doubledPath = tempDir.resolve("doubled.txt");
+    Files.write(doubledPath, (defaultInput() + defaultInput()).getBytes(StandardCharsets.UTF_8));
+    final Path doubledStorePath = tempDir.resolve("doubled" + PairStore.EXTENSION);
+    assertEquals(12, PairStore.compile(doubledPath, doubledStorePath));
+    assertEquals(Files.size(storePath) + 6 * 16, Files.size(doubledStorePath));
+
+    // The same holds when the strings written before have left the buffer of the output.
+    final StringBuilder large = new StringBuilder();
+    final String padding = String.join("", Collections.nCopies(1000, "x"));
+    for (int i = 0; i < 2000; i++) {
+      large.append(pair(SAME_QUERY_A, WRONG_QUERY_C + " -- " + i + padding, "Rule" + i % 7));
+    }
+    final Path largePath = tempDir.resolve("large.txt");
+    Files.write(largePath, large.toString().getBytes(StandardCharsets.UTF_8));
+    final Path largeStorePath = tempDir.resolve("large" + PairStore.EXTENSION);
+    assertEquals(2000, PairStore.compile(largePath, largeStorePath));
+    final Path doubledLargePath = tempDir.resolve("doubled-large.txt");
+    Files.write(doubledLargePath, (large.toString() + large).getBytes(StandardCharsets.UTF_8));
+    final Path doubledLargeStorePath = tempDir.resolve("doubled-large" + PairStore.EXTENSION);
+    assertEquals(4000, PairStore.compile(doubledLargePath, doubledLargeStorePath));
+    assertEquals(Files.size(largeStorePath) + 2000 * 16, Files.size(doubledLargeStorePath));
+    final PairStore largeStore = new PairStore(doubledLargeStorePath, Collections.emptySet());
+    assertEquals(WRONG_QUERY_C + " -- 1999" + padding + "\n", largeStore.get(3999).getKey().second);
+    assertEquals("Rule4\n", largeStore.get(3999).getValue());
+
+    // A failed compilation leaves nothing behind.
+    final Path missingStorePath = tempDir.resolve("missing" + PairStore.EXTENSION);
+    assertThrows(IOException.class, () -> PairStore.compile(tempDir.resolve("missing.txt"), missingStorePath));
+    assertFalse(Files.exists(missingStorePath));
+    assertFalse(Files.exists(tempDir.resolve("missing" + PairStore.EXTENSION + ".tmp")));
+
+    final Properties props = createProperties("except", "4", "");
+    final ResultVerifier verifier = new ResultVerifier(false, Collections.singletonList(connectionPool),
+        new VerifierOptions(props));
+    verifier.verify(storePath.toString());
+    assertEquals(4, verifier.getVerifiedCount());
+    assertEquals(1, verifier.getWrongCount());
+    assertEquals(1, verifier.getErrorCount());
+    assertTrue(read("out.log").contains(WRONG_QUERY_B));
+  }
+
+  /**
+   * Verifies an input which contains one pair of each kind, a duplicate pair and an ignored pair.
+   *
+   * @param compareMode is the way to compare the results.
+   * @param parseThreads is the number of threads to parse the input (0 reads it as a stream).
+   * @return the verifier after the run.
+   */
+  private ResultVerifier verify(final String compareMode, final String parseThreads)
+      throws IOException, InterruptedException {
+    return verify(compareMode, parseThreads, "");
+  }
+
+  /**
+   * Verifies the same input as above on some datasets.
+   *
+   * @param compareMode is the way to compare the results.
+   * @param parseThreads is the number of threads to parse the input (0 reads it as a stream).
+   * @param datasets are the datasets, separated by commas (empty for the default schema).
+   * @return the verifier after the run.
+   */
+  private ResultVerifier verify(final String compareMode, final String parseThreads, final String datasets)
+      throws IOException, InterruptedException {
+    return verify(defaultInput(), createProperties(compareMode, parseThreads, datasets));
+  }
+
+  /**
+   * Verifies an input with the given properties.
+   *
+   * @param input is the content of the input file.
+   * @param props are the properties of the verification.
+   * @return the verifier after the run.
+   */
+  private ResultVerifier verify(final String input, final Properties props) throws IOException, InterruptedException {
+    return verify(input, props, "input.txt");
+  }
+
+  /**
+   * Verifies an input in a file, which is compressed if its name says so.
+   *
+   * @param input is the content of the input file.
+   * @param props are the properties of the verification.
+   * @param fileName is the name of the input file.
+   * @return the verifier after the run.
+   */
+  private ResultVerifier verify(final String input, final Properties props, final String fileName)
+      throws IOException, InterruptedException {
+    final Path inputPath = tempDir.resolve(fileName);
+    try (OutputStream output = CompressedFiles.openOutput(inputPath)) {
+      output.write(input.getBytes(StandardCharsets.UTF_8));
+    }
+
+    final List<ConnectionPool> connectionPools = new ArrayList<>();
+    for (final String dataset: props.getProperty("datasets").split(",")) {
+      connectionPools.add(PLAIN_DATASET.equals(dataset) ? plainConnectionPool
+          : NULL_DATASET.equals(dataset) ? nullConnectionPool : connectionPool);
+    }
+    final ResultVerifier verifier = new ResultVerifier(false, connectionPools, new VerifierOptions(props));
+    verifier.verify(inputPath.toString());
+    return verifier;
+  }
+
+  private Properties createProperties(final String compareMode, final String parseThreads, final String datasets) {
+    final Properties props = new Properties();
+    props.setProperty("backend", "h2");
+    props.setProperty("compare", compareMode);
+    props.setProperty("parse.threads", parseThreads);
+    props.setProperty("metrics.interval", "0");
+    props.setProperty("output.prefix", tempDir.resolve("out").toString());
+    props.setProperty("datasets", datasets);
+    return props;
+  }
+
+  private static String defaultInput() {
+    return pair(SAME_QUERY_A, SAME_QUERY_B, "SameRule")
+        + pair(WRONG_QUERY_A, WRONG_QUERY_B, "WrongRule")
+        + pair(ERROR_QUERY, ERROR_QUERY, "ErrorRule")
+        + pair(DUPLICATE_QUERY_A, DUPLICATE_QUERY_B, "DuplicateRule")
+        + pair(SAME_QUERY_A, SAME_QUERY_B, "SameRule")
+        + pair(WRONG_QUERY_A, WRONG_QUERY_B, IGNORED_RULE);
+  }
+
+  private static String pair(final String first, final String second, final String rule) {
+    return QueryPairReader.PAIR_DELIMITER + "\n"
+        + first + "\n"
+        + QueryPairReader.INTERNAL_DELIMITER + "\n"
+        + first + "\n"
+        + QueryPairReader.INTERNAL_DELIMITER + "\n"
+        + second + "\n"
+        + QueryPairReader.INTERNAL_DELIMITER + "\n"
+        + rule + "\n"
+        + QueryPairReader.PAIR_DELIMITER + "\n";
+  }
+
+  private static int count(final ConnectionPool connectionPool, final String table)
+      throws SQLException, InterruptedException {
+    final Connection connection = connectionPool.borrow();
+    try (Statement statement = connection.createStatement();
+         ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+      assertTrue(result.next());
+      return result.getInt(1);
+    } finally {
+      connectionPool.release(connection);
+    }
+  }
+
+  private Properties readSummary() throws IOException {
+    final Properties summary = new Properties();
+    try (Reader reader = Files.newBufferedReader(tempDir.resolve("out" + ResultVerifier.SUMMARY_SUFFIX))) {
+      summary.load(reader);
+    }
+    return summary;
+  }
+
+  private String read(final String fileName) throws IOException {
+    return new String(Files.readAllBytes(tempDir.resolve(fileName)), StandardCharsets.UTF_8);
+  }
+}
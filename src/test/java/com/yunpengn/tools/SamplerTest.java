@@ -0,0 +1,65 @@
+package com.yunpengn.tools;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the distributions of the values drawn for generated data.
+ */
+class SamplerTest {
+  private static final int NUM_ROWS = 10000;
+
+  @Test
+  void sample_distinct_allValuesDistinctInRange() {
+    final Sampler sampler = new Sampler();
+    // A dense range (shuffled in full) and a sparse range (Floyd's algorithm).
+    for (final int upper: new int[] {NUM_ROWS * 2 - 1, Integer.MAX_VALUE}) {
+      final int[] values = sampler.sample(new SplittableRandom(1), 0, upper, NUM_ROWS);
+      assertEquals(NUM_ROWS, values.length);
+      assertEquals(NUM_ROWS, Arrays.stream(values).distinct().count());
+      assertTrue(Arrays.stream(values).allMatch(value -> value >= 0 && value <= upper));
+    }
+    assertThrows(IllegalArgumentException.class, () -> sampler.sample(new SplittableRandom(1), 0, 9, 11));
+  }
+
+  @Test
+  void sample_zipf_skewedTowardsLowerBound() {
+    final int[] values = new Sampler(Sampler.Distribution.ZIPF, 0).sample(new SplittableRandom(2), 100, 1099,
+        NUM_ROWS);
+    assertTrue(Arrays.stream(values).allMatch(value -> value >= 100 && value <= 1099));
+
+    // With an exponent of 1, the lower bound has a frequency of about 1 / H(1000) = 13%, and twice the next one.
+    final long numLowest = Arrays.stream(values).filter(value -> value == 100).count();
+    final long numSecond = Arrays.stream(values).filter(value -> value == 101).count();
+    assertTrue(numLowest > NUM_ROWS / 10 && numLowest < NUM_ROWS / 6, String.valueOf(numLowest));
+    assertTrue(numLowest > numSecond * 3 / 2, numLowest + " vs " + numSecond);
+  }
+
+  @Test
+  void sample_nullRatio_closeToSetting() {
+    for (final Sampler.Distribution distribution: Sampler.Distribution.values()) {
+      final int[] values = new Sampler(distribution, 0.3).sample(new SplittableRandom(3), 0, NUM_ROWS * 10,
+          NUM_ROWS);
+      final long numNulls = Arrays.stream(values).filter(value -> value == Sampler.NULL_VALUE).count();
+      assertTrue(Math.abs(numNulls - NUM_ROWS * 0.3) < NUM_ROWS * 0.02, distribution + ": " + numNulls);
+    }
+    assertThrows(IllegalArgumentException.class, () -> new Sampler(Sampler.Distribution.UNIFORM, 1.5));
+  }
+
+  @Test
+  void isKeyCompatible_onlyDistinctWithoutNulls() {
+    assertTrue(new Sampler().isKeyCompatible());
+    assertFalse(new Sampler(Sampler.Distribution.DISTINCT, 0.1).isKeyCompatible());
+    for (final Sampler.Distribution distribution: new Sampler.Distribution[] {Sampler.Distribution.UNIFORM,
+        Sampler.Distribution.ZIPF, Sampler.Distribution.DUPLICATE}) {
+      assertFalse(new Sampler(distribution, 0).isKeyCompatible());
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package com.yunpengn.tools;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the summing up of the statistics in a folder of stats files.
+ */
+class StatsCheckerTest {
+  private static final String INDEX_FILE_NAME = ".summary-index";
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void run_malformedFile_skippedWhileOthersSummed() throws IOException, InterruptedException {
+    writeStats("stats-1.txt", 10, 4, 2, 1);
+    writeStats("stats-2.txt", 20, 6, 3, 2);
+    Files.write(tempDir.resolve("stats-3.txt"), "Still running ...\n".getBytes(StandardCharsets.UTF_8));
+    Files.write(tempDir.resolve("other.txt"), "Not a stats file.\n".getBytes(StandardCharsets.UTF_8));
+
+    final String output = run(new StatsChecker(2));
+    assertTrue(output.contains("Out of 30 queries, there are 10 with compensation operators, "
+        + "and 5 with compensation operators on top."), output);
+    assertTrue(output.contains("Out of 30 queries, there are 3 failures."), output);
+    assertTrue(output.contains("(2 files summed up, 1 files skipped.)"), output);
+  }
+
+  @Test
+  void run_unchangedFiles_summariesReusedFromIndex() throws IOException, InterruptedException {
+    writeStats("stats-1.txt", 10, 4, 2, 1);
+    writeStats("stats-2.txt", 20, 6, 3, 2);
+    run(new StatsChecker(2));
+
+    // Changes the summary of an unchanged file in the index, which is then used instead of the file itself.
+    final Path indexPath = tempDir.resolve(INDEX_FILE_NAME);
+    final Properties index = new Properties();
+    try (Reader reader = Files.newBufferedReader(indexPath)) {
+      index.load(reader);
+    }
+    assertEquals(2, index.size());
+    final String[] parts = index.getProperty("stats-1.txt").split(",");
+    index.setProperty("stats-1.txt", parts[0] + "," + parts[1] + ",100,0,0,100,0");
+    try (Writer writer = Files.newBufferedWriter(indexPath)) {
+      index.store(writer, null);
+    }
+
+    // A new file is read, while the unchanged files are not.
+    writeStats("stats-3.txt", 5, 1, 1, 1);
+    final String output = run(new StatsChecker(2));
+    assertTrue(output.contains("Out of 125 queries, there are 7 with compensation operators"), output);
+    assertTrue(output.contains("Out of 125 queries, there are 3 failures."), output);
+    assertTrue(output.contains("(3 files summed up, 0 files skipped.)"), output);
+  }
+
+  /**
+   * Writes a stats file which ends with a summary.
+   *
+   * @param fileName is the name of the file.
+   * @param total is the number of queries.
+   * @param comp is the number of queries with compensation operators.
+   * @param top is the number of queries with compensation operators on top.
+   * @param failure is the number of failures.
+   */
+  private void writeStats(final String fileName, final int total, final int comp, final int top,
+                          final int failure) throws IOException {
+    final String content = "Some details of the queries.\n"
+        + String.format("Out of %d queries, there are %d with compensation operators, "
+        + "and %d with compensation operators on top.\n", total, comp, top)
+        + String.format("Out of %d queries, there are %d failures.\n", total, failure)
+        + "Finished.\n";
+    Files.write(tempDir.resolve(fileName), content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Runs a checker on the folder.
+   *
+   * @param checker is the checker.
+   * @return what the checker prints out.
+   */
+  private String run(final StatsChecker checker) throws IOException, InterruptedException {
+    final PrintStream stdout = System.out;
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(output, true, "UTF-8"));
+    try {
+      checker.run(tempDir.toString());
+    } finally {
+      System.setOut(stdout);
+    }
+    return new String(output.toByteArray(), StandardCharsets.UTF_8);
+  }
+}